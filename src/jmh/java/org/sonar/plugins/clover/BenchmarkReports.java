@@ -0,0 +1,121 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports and input files shared by the benchmarks.
+ */
+final class BenchmarkReports {
+
+  static final String[] FORMATS = {"clover_2_3_2.xml", "clover_2_6_0.xml", "clover_3_2_2.xml", "clover_4_1_1.xml"};
+  private static final int FILES_PER_PACKAGE = 100;
+
+  private BenchmarkReports() {
+  }
+
+  /**
+   * @return a copy of the given report of the test resources, where the packages of the project are repeated the given
+   * number of times, with distinct file paths
+   */
+  static File enlarge(String format, int copies, Path directory) throws IOException {
+    String xml = new String(Files.readAllBytes(TestUtils.getResource(CloverXmlReportParserTest.class, format).toPath()), StandardCharsets.UTF_8);
+    int project = xml.indexOf("<project");
+    int packagesStart = xml.indexOf("<package", project);
+    int packagesEnd = xml.indexOf("</project>", packagesStart);
+    String packages = xml.substring(packagesStart, packagesEnd);
+    StringBuilder enlarged = new StringBuilder(xml.length() + packages.length() * copies).append(xml, 0, packagesStart);
+    for (int i = 0; i < copies; i++) {
+      enlarged.append(i == 0 ? packages : packages.replace("path=\"", "path=\"/copy" + i));
+    }
+    enlarged.append(xml.substring(packagesEnd));
+    File report = directory.resolve(copies + "-" + format).toFile();
+    Files.write(report.toPath(), enlarged.toString().getBytes(StandardCharsets.UTF_8));
+    return report;
+  }
+
+  /**
+   * @return a report written by {@link CloverReportGenerator} with the given number of files of 100 lines and 10
+   * conditions each, about 5.7 KB per file, in packages of 100 files
+   */
+  static File generate(String layout, int files, Path directory) throws IOException {
+    File report = directory.resolve(files + "-" + layout + ".xml").toFile();
+    new CloverReportGenerator(directory.toString()).layout(CloverReportGenerator.Layout.valueOf(layout))
+      .packages(Math.max(1, files / FILES_PER_PACKAGE)).filesPerPackage(Math.min(files, FILES_PER_PACKAGE))
+      .linesPerFile(100).conditionsPerFile(10).write(report);
+    return report;
+  }
+
+  /**
+   * @return a provider which finds a file for any path, so that the whole report is saved
+   */
+  static InputFileProvider matchingEverything() {
+    Map<String, InputFile> files = new ConcurrentHashMap<>();
+    return new InputFileProvider(null) {
+      @Override
+      public InputFile fromPath(String path) {
+        return files.computeIfAbsent(path, p -> new TestInputFileBuilder("", p).setLines(100_000).build());
+      }
+    };
+  }
+
+  /**
+   * A handler which only sums the data of the report, for the benchmarks of the reading alone.
+   */
+  static class SummingHandler implements CloverReportHandler {
+    long sum;
+
+    @Override
+    public boolean startFile(String path) {
+      sum += path.length();
+      return true;
+    }
+
+    @Override
+    public void fileMetrics(boolean hasElements) {
+      sum += hasElements ? 1 : 0;
+    }
+
+    @Override
+    public void lineHits(int line, int hits) {
+      sum += line + hits;
+    }
+
+    @Override
+    public void conditions(int line, int trueCount, int falseCount) {
+      sum += line + trueCount + falseCount;
+    }
+
+    @Override
+    public void endFile() {
+      sum++;
+    }
+  }
+}
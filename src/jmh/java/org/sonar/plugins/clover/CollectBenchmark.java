@@ -0,0 +1,124 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+import org.sonar.api.config.internal.MapSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end import of a generated report of about 28, 114 or 285 MB, saved to an in-memory sensor context. The reports
+ * are larger than the threshold of the parallel reading of packages, and their coverage is larger than the smallest
+ * memory budget of the merge, so that it is spilled to disk. The byte scanner is also measured alone with windows
+ * smaller than the reports, the default window being larger than any of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class CollectBenchmark {
+
+  private static final int WINDOW_SIZE = 16 * 1024 * 1024;
+
+  @State(Scope.Benchmark)
+  public static class GeneratedReport {
+
+    @Param({"CLOVER_4_1_1"})
+    public String layout;
+
+    @Param({"5000", "20000", "50000"})
+    public int files;
+
+    private Path directory;
+    private File report;
+
+    @Setup
+    public void setUp() throws IOException {
+      directory = Files.createTempDirectory("clover-benchmark");
+      Files.createDirectories(directory.resolve("work"));
+      report = BenchmarkReports.generate(layout, files, directory);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+      FileUtils.deleteDirectory(directory.toFile());
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class ImportSettings {
+
+    @Param({CloverXmlReportParser.STAX_PARSER, CloverXmlReportParser.BYTES_PARSER})
+    public String parser;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"64", "4"})
+    public int mergeMemoryBudgetMb;
+
+    private MapSettings settings;
+    private InputFileProvider inputFileProvider;
+
+    @Setup
+    public void setUp() {
+      settings = new MapSettings();
+      settings.setProperty(CloverSensor.PARSER_PROPERTY, parser);
+      settings.setProperty(CloverSensor.PARALLELISM_PROPERTY, parallelism);
+      settings.setProperty(CloverSensor.MERGE_MEMORY_BUDGET_PROPERTY, mergeMemoryBudgetMb);
+      inputFileProvider = BenchmarkReports.matchingEverything();
+    }
+  }
+
+  @Benchmark
+  public SensorContextTester collect(GeneratedReport report, ImportSettings importSettings) {
+    SensorContextTester context = SensorContextTester.create(report.directory);
+    context.fileSystem().setWorkDir(report.directory.resolve("work"));
+    context.setSettings(importSettings.settings);
+    new CloverXmlReportParser(context, importSettings.inputFileProvider).collect(report.report);
+    return context;
+  }
+
+  @Benchmark
+  public long scanInWindows(GeneratedReport report) throws Exception {
+    BenchmarkReports.SummingHandler handler = new BenchmarkReports.SummingHandler();
+    new CloverByteScanner(handler, WINDOW_SIZE).scan(report.report);
+    return handler.sum;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolution of report paths to the input files of the project.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InputFileProviderBenchmark {
+
+  private static final int LOOKUPS = 1024;
+
+  @Param({"1000", "100000"})
+  public int files;
+
+  private DefaultFileSystem fileSystem;
+  private InputFileProvider provider;
+  private final String[] relativePaths = new String[LOOKUPS];
+  private final String[] absolutePaths = new String[LOOKUPS];
+  private final String[] unknownPaths = new String[LOOKUPS];
+
+  @Setup
+  public void setUp() {
+    File baseDir = new File("target/benchmark-project").getAbsoluteFile();
+    fileSystem = new DefaultFileSystem(baseDir);
+    for (int i = 0; i < files; i++) {
+      fileSystem.add(new TestInputFileBuilder("module", path(i)).setModuleBaseDir(baseDir.toPath()).build());
+    }
+    for (int i = 0; i < LOOKUPS; i++) {
+      int file = (int) ((i * 2654435761L) % files);
+      relativePaths[i] = path(file);
+      absolutePaths[i] = new File(baseDir, path(file)).getPath();
+      unknownPaths[i] = "/elsewhere/" + path(file);
+    }
+    provider = new InputFileProvider(fileSystem);
+    // the index is built by the first lookup
+    provider.fromPath(relativePaths[0]);
+  }
+
+  private static String path(int i) {
+    return "src/main/java/org/example/p" + (i % 100) + "/File" + i + ".java";
+  }
+
+  @Benchmark
+  public InputFileProvider buildIndex() {
+    InputFileProvider newProvider = new InputFileProvider(fileSystem);
+    newProvider.fromPath(relativePaths[0]);
+    return newProvider;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LOOKUPS)
+  public void relativePath(Blackhole blackhole) {
+    for (String path : relativePaths) {
+      blackhole.consume(provider.fromPath(path));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LOOKUPS)
+  public void absolutePath(Blackhole blackhole) {
+    for (String path : absolutePaths) {
+      blackhole.consume(provider.fromPath(path));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LOOKUPS)
+  public void unknownPath(Blackhole blackhole) {
+    for (String path : unknownPaths) {
+      blackhole.consume(provider.fromPath(path));
+    }
+  }
+}
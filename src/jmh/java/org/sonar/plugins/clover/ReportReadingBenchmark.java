@@ -0,0 +1,101 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.apache.commons.io.FileUtils;
+import org.codehaus.staxmate.in.SMInputCursor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading of a report without saving its data: traversal of the StAX cursors alone, then with the decoding of the
+ * attributes, and the byte scanner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportReadingBenchmark {
+
+  @Param({"clover_2_3_2.xml", "clover_2_6_0.xml", "clover_3_2_2.xml", "clover_4_1_1.xml"})
+  public String format;
+
+  @Param({"1", "100"})
+  public int copies;
+
+  private Path directory;
+  private File report;
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("clover-benchmark");
+    report = BenchmarkReports.enlarge(format, copies, directory);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory.toFile());
+  }
+
+  @Benchmark
+  public long cursorTraversal() throws XMLStreamException {
+    long[] elements = new long[1];
+    new StaxParser(rootCursor -> {
+      SMInputCursor cursor = rootCursor.advance().descendantElementCursor();
+      while (cursor.getNext() != null) {
+        elements[0]++;
+      }
+    }).parse(report);
+    return elements[0];
+  }
+
+  @Benchmark
+  public long attributeParsing() throws XMLStreamException {
+    BenchmarkReports.SummingHandler handler = new BenchmarkReports.SummingHandler();
+    CloverXmlReportParser.createStaxParser(handler).parse(report);
+    return handler.sum;
+  }
+
+  @Benchmark
+  public long byteScanner() throws IOException, XMLStreamException {
+    BenchmarkReports.SummingHandler handler = new BenchmarkReports.SummingHandler();
+    new CloverByteScanner(handler).scan(report);
+    return handler.sum;
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The cache which SonarQube keeps from one analysis of a branch to the next one, from version 9.4 on. Parsed reports
+ * are stored there in the binary form of the entries of {@link CoverageCache}, keyed by the SHA-256 of their content,
+ * so that the next analysis of an unchanged report replays its coverage instead of parsing it. Entries which are
+ * replayed are carried over to the next analysis.
+ * <p>
+ * The plugin is built against an older API, so that the cache is reached through reflection, and is not used on the
+ * servers which do not have it. It is only used when enabled, since recording a report reads the content of all its
+ * files and holds the entry in memory.
+ */
+class AnalysisCache {
+
+  private static final Logger LOG = Loggers.get(AnalysisCache.class);
+  private static final String KEY_PREFIX = "clover:";
+
+  // the keys written to each next cache, which accepts a key once for the whole analysis, whatever the module; the next
+  // cache is held by the scanner until the end of the analysis, whereas the stores go with the sensors of the modules
+  private static final Map<Object, Set<String>> WRITTEN_KEYS = new WeakHashMap<>();
+
+  private final Store store;
+  private final Set<String> written;
+
+  AnalysisCache(Store store) {
+    this.store = store;
+    synchronized (WRITTEN_KEYS) {
+      this.written = WRITTEN_KEYS.computeIfAbsent(store.nextCache(), c -> new HashSet<>());
+    }
+  }
+
+  /**
+   * @return the cache of the analysis, or null if the server has none or it is disabled
+   */
+  @CheckForNull
+  static AnalysisCache of(SensorContext context) {
+    try {
+      Method isCacheEnabled = SensorContext.class.getMethod("isCacheEnabled");
+      if (!Boolean.TRUE.equals(isCacheEnabled.invoke(context))) {
+        return null;
+      }
+      Object previousCache = SensorContext.class.getMethod("previousCache").invoke(context);
+      Object nextCache = SensorContext.class.getMethod("nextCache").invoke(context);
+      return new AnalysisCache(new ReflectiveStore(previousCache, nextCache));
+    } catch (NoSuchMethodException | ClassNotFoundException e) {
+      // the server predates the analysis cache
+      return null;
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      LOG.debug("Unable to use the analysis cache", e);
+      return null;
+    }
+  }
+
+  /**
+   * @return false if the previous analysis has no entry with the given key
+   */
+  boolean replay(String key, CloverReportHandler handler) throws IOException {
+    InputStream input = store.read(KEY_PREFIX + key);
+    if (input == null) {
+      return false;
+    }
+    // not under the lock: the handler blocks until the reports before this one are saved
+    CoverageCache.replay(input, handler, KEY_PREFIX + key);
+    synchronized (written) {
+      if (written.add(key)) {
+        store.copyFromPrevious(KEY_PREFIX + key);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return a handler which forwards the data of the report to the given handler, and stores the data of all the files
+   * for the next analysis once committed
+   */
+  CoverageCache.Recorder recorder(String key, CloverReportHandler delegate) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    return new CoverageCache.Recorder(delegate, output) {
+      @Override
+      void commit() throws IOException {
+        super.commit();
+        synchronized (written) {
+          if (written.add(key)) {
+            store.write(KEY_PREFIX + key, output.toByteArray());
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * The previous and the next caches of the analysis.
+   */
+  interface Store {
+
+    /**
+     * @return the next cache, which is the same object for all the modules of the analysis
+     */
+    Object nextCache();
+
+    /**
+     * @return the entry of the previous analysis, null if there is none
+     */
+    @CheckForNull
+    InputStream read(String key) throws IOException;
+
+    void write(String key, byte[] data) throws IOException;
+
+    void copyFromPrevious(String key) throws IOException;
+  }
+
+  /**
+   * Calls the {@code ReadCache} and {@code WriteCache} of the scanner.
+   */
+  private static final class ReflectiveStore implements Store {
+
+    private final Object previousCache;
+    private final Object nextCache;
+    private final Method contains;
+    private final Method read;
+    private final Method write;
+    private final Method copyFromPrevious;
+
+    ReflectiveStore(Object previousCache, Object nextCache) throws ClassNotFoundException, NoSuchMethodException {
+      this.previousCache = previousCache;
+      this.nextCache = nextCache;
+      ClassLoader classLoader = SensorContext.class.getClassLoader();
+      Class<?> readCache = Class.forName("org.sonar.api.batch.sensor.cache.ReadCache", false, classLoader);
+      Class<?> writeCache = Class.forName("org.sonar.api.batch.sensor.cache.WriteCache", false, classLoader);
+      this.contains = readCache.getMethod("contains", String.class);
+      this.read = readCache.getMethod("read", String.class);
+      this.write = writeCache.getMethod("write", String.class, byte[].class);
+      this.copyFromPrevious = writeCache.getMethod("copyFromPrevious", String.class);
+    }
+
+    @Override
+    public Object nextCache() {
+      return nextCache;
+    }
+
+    @Override
+    public InputStream read(String key) throws IOException {
+      return Boolean.TRUE.equals(invoke(contains, previousCache, key)) ? (InputStream) invoke(read, previousCache, key) : null;
+    }
+
+    @Override
+    public void write(String key, byte[] data) throws IOException {
+      invoke(write, nextCache, key, data);
+    }
+
+    @Override
+    public void copyFromPrevious(String key) throws IOException {
+      invoke(copyFromPrevious, nextCache, key);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+      try {
+        return method.invoke(target, args);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      } catch (InvocationTargetException e) {
+        throw new IOException("Analysis cache failure in " + method.getName(), e.getCause());
+      }
+    }
+  }
+}
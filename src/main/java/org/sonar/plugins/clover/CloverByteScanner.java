@@ -0,0 +1,825 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a Clover XML report straight from the bytes of the memory-mapped file. Only the few elements of the Clover
+ * format are recognized: numeric attributes are decoded without creating any String, and only the {@code path} of
+ * files is turned into a String. Files are walked the same way as the StAX based parsing of
+ * {@link CloverXmlReportParser}: the first child of the project and of each package is skipped, and classes are
+ * ignored in files. The {@code <testproject>} section which follows the project is read the same way when asked for.
+ * The bytes of the packages and of the files which the handler rejects, and when only the metrics of the files are
+ * read the bytes which follow the {@code metrics} element of a file, are skipped up to the end of the package or of the
+ * file without recognizing any tag.
+ * <p>
+ * The report is mapped by windows, so that reports larger than 2 GB can be read.
+ * <p>
+ * The packages of a report can also be read separately: {@link #indexPackages(File)} finds where each package starts
+ * and ends, without decoding their content, then {@link #scanPackages(File, PackageIndex, int, int)} reads a range of
+ * consecutive packages.
+ */
+class CloverByteScanner {
+
+  private static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+  private static final int EOF = -1;
+  private static final int MAX_NAME_LENGTH = 24;
+  private static final int MAX_DECLARATION_LENGTH = 256;
+
+  private static final byte[] PROJECT = ascii("project");
+  private static final byte[] TEST_PROJECT = ascii("testproject");
+  private static final byte[] FILE = ascii("file");
+  private static final byte[] CLASS = ascii("class");
+  private static final byte[] PACKAGE = ascii("package");
+  private static final byte[] NAME = ascii("name");
+  private static final byte[] PATH = ascii("path");
+  private static final byte[] NUM = ascii("num");
+  private static final byte[] COUNT = ascii("count");
+  private static final byte[] TRUE_COUNT = ascii("truecount");
+  private static final byte[] FALSE_COUNT = ascii("falsecount");
+  private static final byte[] ELEMENTS = ascii("elements");
+  private static final byte[] STATEMENTS = ascii("statements");
+  private static final byte[] COVERED_STATEMENTS = ascii("coveredstatements");
+  private static final byte[] CONDITIONALS = ascii("conditionals");
+  private static final byte[] COVERED_CONDITIONALS = ascii("coveredconditionals");
+
+  private enum Role {
+    NONE, PROJECT, TEST_PROJECT, PACKAGE, FILE, METRICS, LINE
+  }
+
+  private final CloverReportHandler handler;
+  private final int windowSize;
+  private final ReadOptions options;
+
+  private FileChannel channel;
+  private long fileSize;
+  private long windowStart;
+  private MappedByteBuffer window;
+  private int limit;
+  private int pos;
+
+  private final byte[] name = new byte[MAX_NAME_LENGTH];
+  private int nameLength;
+  private byte[] value = new byte[256];
+  private int valueLength;
+  private Charset charset = StandardCharsets.UTF_8;
+
+  private int depth;
+  private int projectDepth = -1;
+  private int projectChildren;
+  private int packageDepth = -1;
+  private boolean packageFirstDescendantSkipped;
+  private boolean skipPackage;
+  private ImportEvents.PackageRead packageEvent;
+  private long packageStart;
+  private int fileDepth = -1;
+  private boolean skipFile;
+  private boolean metricsRead;
+  private boolean done;
+  private boolean projectRead;
+  private boolean tests;
+  private boolean indexing;
+  private long tagStart;
+  private long[] packageStarts = new long[16];
+  private long[] packageEnds = new long[16];
+  private boolean[] packageTests = new boolean[16];
+  private int packages;
+
+  private String path;
+  private String packageName;
+  private long num;
+  private long count;
+  private long trueCount;
+  private long falseCount;
+  private long elements;
+  private long statements;
+  private long coveredStatements;
+  private long conditionals;
+  private long coveredConditionals;
+  private boolean hasNum;
+  private boolean hasCount;
+
+  CloverByteScanner(CloverReportHandler handler) {
+    this(handler, ReadOptions.DEFAULT);
+  }
+
+  CloverByteScanner(CloverReportHandler handler, ReadOptions options) {
+    this(handler, DEFAULT_WINDOW_SIZE, options);
+  }
+
+  CloverByteScanner(CloverReportHandler handler, int windowSize) {
+    this(handler, windowSize, ReadOptions.DEFAULT);
+  }
+
+  CloverByteScanner(CloverReportHandler handler, int windowSize, ReadOptions options) {
+    this.handler = handler;
+    this.windowSize = windowSize;
+    this.options = options;
+  }
+
+  void scan(File report) throws IOException, XMLStreamException {
+    try (FileChannel fileChannel = FileChannel.open(report.toPath(), StandardOpenOption.READ)) {
+      channel = fileChannel;
+      fileSize = fileChannel.size();
+      scanDocument();
+    } finally {
+      channel = null;
+      window = null;
+    }
+  }
+
+  /**
+   * @return the offsets of the packages of the project, then of the tests when they are read, in document order
+   */
+  PackageIndex indexPackages(File report) throws IOException, XMLStreamException {
+    indexing = true;
+    scan(report);
+    return new PackageIndex(Arrays.copyOf(packageStarts, packages), Arrays.copyOf(packageEnds, packages),
+      Arrays.copyOf(packageTests, packages), tests, charset);
+  }
+
+  /**
+   * Reads the packages of the given index from {@code first} to {@code last}, both included, as they would be read by
+   * {@link #scan(File)}.
+   */
+  void scanPackages(File report, PackageIndex index, int first, int last) throws IOException, XMLStreamException {
+    try (FileChannel fileChannel = FileChannel.open(report.toPath(), StandardOpenOption.READ)) {
+      channel = fileChannel;
+      fileSize = index.end(last);
+      windowStart = index.start(first);
+      charset = index.charset;
+      // the range only holds children of the project, after its metrics
+      projectDepth = 0;
+      projectChildren = 1;
+      scanTags();
+      if (depth != 0) {
+        throw unexpectedEnd();
+      }
+    } finally {
+      channel = null;
+      window = null;
+    }
+  }
+
+  private void scanDocument() throws IOException, XMLStreamException {
+    scanTags();
+    // the report may have no tests, once the project was read
+    if (!done && (!projectRead || projectDepth >= 0)) {
+      throw new XMLStreamException(projectDepth < 0 && !projectRead ? "No <project> element found in Clover report" : "Unexpected end of Clover report");
+    }
+  }
+
+  private void scanTags() throws IOException, XMLStreamException {
+    while (!done && skipPast('<')) {
+      tagStart = windowStart + pos - 1;
+      int c = read();
+      if (c == '?') {
+        readProcessingInstruction();
+      } else if (c == '!') {
+        skipMarkupDeclaration();
+      } else if (c == '/') {
+        endTag();
+      } else {
+        startTag(c);
+      }
+    }
+  }
+
+  private void startTag(int first) throws IOException, XMLStreamException {
+    int c = readName(first);
+    depth++;
+    Role role = roleOfElement();
+    c = readAttributes(c, role);
+    startElement(role);
+    if (c == '/') {
+      endElement();
+    } else if (role == Role.FILE && depth == fileDepth && skipFile) {
+      skipToEndOfFile();
+    } else if (role == Role.PACKAGE && (skipPackage || indexing)) {
+      // the index only needs the bounds of the packages
+      skipToEndOfPackage();
+    }
+  }
+
+  private void endTag() throws IOException, XMLStreamException {
+    int c = readName(read());
+    if (c != '>' && !skipPast('>')) {
+      throw unexpectedEnd();
+    }
+    endElement();
+  }
+
+  private Role roleOfElement() {
+    if (projectDepth < 0) {
+      if (projectRead) {
+        return is(TEST_PROJECT) ? Role.TEST_PROJECT : Role.NONE;
+      }
+      return is(PROJECT) ? Role.PROJECT : Role.NONE;
+    }
+    if (fileDepth >= 0) {
+      if (depth != fileDepth + 1 || is(CLASS)) {
+        return Role.NONE;
+      }
+      return metricsRead ? Role.LINE : Role.METRICS;
+    }
+    if (packageDepth >= 0) {
+      if (!packageFirstDescendantSkipped) {
+        packageFirstDescendantSkipped = true;
+        return Role.NONE;
+      }
+      return is(FILE) ? Role.FILE : Role.NONE;
+    }
+    if (depth == projectDepth + 1) {
+      projectChildren++;
+      // the first child of the project holds its metrics
+      return projectChildren > 1 ? Role.PACKAGE : Role.NONE;
+    }
+    return Role.NONE;
+  }
+
+  private void startElement(Role role) {
+    switch (role) {
+      case PROJECT:
+        projectDepth = depth;
+        break;
+      case TEST_PROJECT:
+        projectDepth = depth;
+        projectChildren = 0;
+        tests = true;
+        if (!indexing) {
+          handler.startTests();
+        }
+        break;
+      case PACKAGE:
+        if (indexing) {
+          addPackage();
+        }
+        packageDepth = depth;
+        packageFirstDescendantSkipped = false;
+        skipPackage = !indexing && packageName != null && !handler.acceptsPackage(packageName);
+        if (!indexing) {
+          startPackageEvent();
+        }
+        break;
+      case FILE:
+        if (path != null) {
+          fileDepth = depth;
+          metricsRead = false;
+          skipFile = !handler.startFile(path);
+          if (packageEvent != null) {
+            packageEvent.files++;
+          }
+        }
+        break;
+      case METRICS:
+        metricsRead = true;
+        handler.fileMetrics(elements > 0);
+        if (options.fileMetricsOnly()) {
+          handler.fileTotals(toInt(statements), toInt(coveredStatements), toInt(conditionals), toInt(coveredConditionals));
+        }
+        break;
+      case LINE:
+        if (!hasNum) {
+          throw new NumberFormatException("Missing num attribute on line element");
+        } else if (num > Integer.MAX_VALUE) {
+          throw new NumberFormatException("Invalid line number in Clover report: " + num);
+        }
+        if (packageEvent != null) {
+          packageEvent.lines++;
+        }
+        if (hasCount) {
+          handler.lineHits(toInt(num), toInt(count));
+        } else {
+          handler.conditions(toInt(num), toInt(trueCount), toInt(falseCount));
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void endElement() throws IOException, XMLStreamException {
+    if (depth == fileDepth) {
+      if (!skipFile) {
+        handler.endFile();
+      }
+      fileDepth = -1;
+    } else if (depth == packageDepth) {
+      if (indexing) {
+        packageEnds[packages - 1] = windowStart + pos;
+      } else {
+        if (packageEvent != null && packageEvent.shouldCommit()) {
+          packageEvent.bytes = windowStart + pos - packageStart;
+          packageEvent.commit();
+        }
+        packageEvent = null;
+      }
+      packageDepth = -1;
+    } else if (depth == projectDepth) {
+      if (options.tests() && !tests) {
+        projectRead = true;
+        projectDepth = -1;
+      } else {
+        done = true;
+      }
+    }
+    depth--;
+    if (depth == fileDepth && metricsRead && options.fileMetricsOnly()) {
+      skipToEndOfFile();
+    }
+  }
+
+  /**
+   * Moves past the end tag of the current file without decoding its content. Files are never nested, so that their
+   * end is the first {@code </file>} tag.
+   */
+  private void skipToEndOfFile() throws IOException, XMLStreamException {
+    skipToEndTag(FILE);
+    depth = fileDepth;
+    endElement();
+  }
+
+  /**
+   * Moves past the end tag of the current package without decoding its content. Packages are never nested either.
+   */
+  private void skipToEndOfPackage() throws IOException, XMLStreamException {
+    skipToEndTag(PACKAGE);
+    depth = packageDepth;
+    endElement();
+  }
+
+  private void skipToEndTag(byte[] elementName) throws IOException, XMLStreamException {
+    while (true) {
+      if (!skipPast('<')) {
+        throw unexpectedEnd();
+      }
+      if (read() == '/' && skipName(elementName)) {
+        int c = read();
+        if (c == '>' || (isWhitespace(c) && skipPast('>'))) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if the next bytes are the given name, false as soon as a byte differs
+   */
+  private boolean skipName(byte[] expected) throws IOException {
+    for (byte b : expected) {
+      if (read() != b) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void startPackageEvent() {
+    if (!ImportEvents.isPackageReadEnabled()) {
+      return;
+    }
+    packageEvent = new ImportEvents.PackageRead();
+    packageEvent.begin();
+    packageEvent.name = packageName;
+    packageEvent.skipped = skipPackage;
+    packageStart = tagStart;
+  }
+
+  private void addPackage() {
+    if (packages == packageStarts.length) {
+      packageStarts = Arrays.copyOf(packageStarts, packages * 2);
+      packageEnds = Arrays.copyOf(packageEnds, packages * 2);
+      packageTests = Arrays.copyOf(packageTests, packages * 2);
+    }
+    packageTests[packages] = tests;
+    packageStarts[packages++] = tagStart;
+  }
+
+  /**
+   * Reads the attributes of the current start tag, decoding the ones needed by the given role.
+   *
+   * @return '>' at the end of a start tag, '/' at the end of an empty element tag
+   */
+  private int readAttributes(int first, Role role) throws IOException, XMLStreamException {
+    path = null;
+    packageName = null;
+    hasNum = false;
+    hasCount = false;
+    elements = 0;
+    statements = 0;
+    coveredStatements = 0;
+    conditionals = 0;
+    coveredConditionals = 0;
+    trueCount = 0;
+    falseCount = 0;
+    int c = first;
+    while (true) {
+      c = skipWhitespace(c);
+      if (c == '>') {
+        return '>';
+      } else if (c == '/') {
+        if (read() != '>') {
+          throw malformed();
+        }
+        return '/';
+      } else if (c == EOF) {
+        throw unexpectedEnd();
+      }
+      c = skipWhitespace(readName(c));
+      if (c != '=') {
+        throw malformed();
+      }
+      int quote = skipWhitespace(read());
+      if (quote != '"' && quote != '\'') {
+        throw malformed();
+      }
+      readAttributeValue(role, quote);
+      c = read();
+    }
+  }
+
+  private void readAttributeValue(Role role, int quote) throws IOException, XMLStreamException {
+    if (role == Role.FILE && is(PATH)) {
+      path = decode(readValue(quote));
+    } else if (role == Role.PACKAGE && !indexing && is(NAME)) {
+      packageName = decode(readValue(quote));
+    } else if (role == Role.METRICS && is(ELEMENTS)) {
+      elements = readNumber(quote, true);
+    } else if (role == Role.METRICS && options.fileMetricsOnly()) {
+      readTotal(quote);
+    } else if (role == Role.LINE && is(NUM)) {
+      num = readNumber(quote, false);
+      hasNum = true;
+    } else if (role == Role.LINE && is(COUNT)) {
+      count = readNumber(quote, true);
+      hasCount = count >= 0;
+    } else if (role == Role.LINE && is(TRUE_COUNT)) {
+      trueCount = Math.max(0, readNumber(quote, true));
+    } else if (role == Role.LINE && is(FALSE_COUNT)) {
+      falseCount = Math.max(0, readNumber(quote, true));
+    } else if (!skipPast(quote)) {
+      throw unexpectedEnd();
+    }
+  }
+
+  private void readTotal(int quote) throws IOException, XMLStreamException {
+    if (is(STATEMENTS)) {
+      statements = Math.max(0, readNumber(quote, true));
+    } else if (is(COVERED_STATEMENTS)) {
+      coveredStatements = Math.max(0, readNumber(quote, true));
+    } else if (is(CONDITIONALS)) {
+      conditionals = Math.max(0, readNumber(quote, true));
+    } else if (is(COVERED_CONDITIONALS)) {
+      coveredConditionals = Math.max(0, readNumber(quote, true));
+    } else if (!skipPast(quote)) {
+      throw unexpectedEnd();
+    }
+  }
+
+  /**
+   * @return the decoded number, or -1 if the value is blank and blank values are allowed
+   */
+  private long readNumber(int quote, boolean allowBlank) throws IOException, XMLStreamException {
+    long number = 0;
+    int digits = 0;
+    boolean blank = true;
+    boolean valid = true;
+    int c;
+    while ((c = read()) != quote) {
+      if (c == EOF) {
+        throw unexpectedEnd();
+      } else if (c >= '0' && c <= '9') {
+        // counts of long running tests may not fit in a long either, they saturate
+        number = number > (Long.MAX_VALUE - 9) / 10 ? Long.MAX_VALUE : number * 10 + (c - '0');
+        digits++;
+        blank = false;
+      } else if (!isWhitespace(c)) {
+        valid = false;
+        blank = false;
+      }
+    }
+    if (blank && allowBlank) {
+      return -1;
+    }
+    if (!valid || digits == 0) {
+      throw new NumberFormatException("Invalid number in Clover report at offset " + (windowStart + pos));
+    }
+    return number;
+  }
+
+  private int readValue(int quote) throws IOException, XMLStreamException {
+    valueLength = 0;
+    int c;
+    while ((c = read()) != quote) {
+      if (c == EOF) {
+        throw unexpectedEnd();
+      }
+      append(c);
+    }
+    return valueLength;
+  }
+
+  private void append(int c) {
+    if (valueLength == value.length) {
+      value = Arrays.copyOf(value, value.length * 2);
+    }
+    value[valueLength++] = (byte) c;
+  }
+
+  private String decode(int length) {
+    String decoded = new String(value, 0, length, charset);
+    return decoded.indexOf('&') < 0 ? decoded : decodeEntities(decoded);
+  }
+
+  private static String decodeEntities(String text) {
+    StringBuilder sb = new StringBuilder(text.length());
+    int i = 0;
+    while (i < text.length()) {
+      char c = text.charAt(i);
+      int end = c == '&' ? text.indexOf(';', i) : -1;
+      if (end < 0) {
+        sb.append(c);
+        i++;
+      } else {
+        sb.append(resolveEntity(text.substring(i + 1, end)));
+        i = end + 1;
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String resolveEntity(String entity) {
+    switch (entity) {
+      case "lt":
+        return "<";
+      case "gt":
+        return ">";
+      case "amp":
+        return "&";
+      case "quot":
+        return "\"";
+      case "apos":
+        return "'";
+      default:
+        return resolveCharacterReference(entity);
+    }
+  }
+
+  private static String resolveCharacterReference(String entity) {
+    try {
+      if (entity.startsWith("#x") || entity.startsWith("#X")) {
+        return new String(Character.toChars(Integer.parseInt(entity.substring(2), 16)));
+      } else if (entity.startsWith("#")) {
+        return new String(Character.toChars(Integer.parseInt(entity.substring(1))));
+      } else if ((entity.startsWith("u") || entity.startsWith("U")) && entity.length() == 5) {
+        // same as the undeclared entities resolver of the StAX parser
+        int unicodeCharHexValue = Integer.parseInt(entity.substring(1), 16);
+        if (Character.isDefined(unicodeCharHexValue)) {
+          return new String(new char[] {(char) unicodeCharHexValue});
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      // keep the raw form of invalid references
+    }
+    return entity;
+  }
+
+  private void readProcessingInstruction() throws IOException, XMLStreamException {
+    valueLength = 0;
+    int previous = 0;
+    int c;
+    while ((c = read()) != '>' || previous != '?') {
+      if (c == EOF) {
+        throw unexpectedEnd();
+      }
+      if (valueLength < MAX_DECLARATION_LENGTH) {
+        append(c);
+      }
+      previous = c;
+    }
+    String declaration = new String(value, 0, valueLength, StandardCharsets.ISO_8859_1);
+    if (declaration.startsWith("xml")) {
+      readEncoding(declaration);
+    }
+  }
+
+  private void readEncoding(String declaration) throws XMLStreamException {
+    int index = declaration.indexOf("encoding");
+    if (index < 0) {
+      return;
+    }
+    int start = declaration.indexOf('"', index);
+    if (start < 0) {
+      start = declaration.indexOf('\'', index);
+    }
+    int end = start < 0 ? -1 : declaration.indexOf(declaration.charAt(start), start + 1);
+    if (end < 0) {
+      return;
+    }
+    String encoding = declaration.substring(start + 1, end);
+    if (encoding.toUpperCase().startsWith("UTF-16") || encoding.toUpperCase().startsWith("UTF-32")) {
+      throw new XMLStreamException("Encoding " + encoding + " is not supported by the '" + CloverXmlReportParser.BYTES_PARSER + "' parser");
+    }
+    try {
+      charset = Charset.forName(encoding);
+    } catch (IllegalArgumentException e) {
+      throw new XMLStreamException("Unsupported encoding " + encoding, e);
+    }
+  }
+
+  private void skipMarkupDeclaration() throws IOException, XMLStreamException {
+    int c = read();
+    if (c == '-') {
+      skipPast("-->");
+    } else if (c == '[') {
+      skipPast("]]>");
+    } else {
+      // DOCTYPE, which may hold an internal subset
+      int brackets = 0;
+      while (c != '>' || brackets > 0) {
+        if (c == EOF) {
+          throw unexpectedEnd();
+        } else if (c == '[') {
+          brackets++;
+        } else if (c == ']') {
+          brackets--;
+        }
+        c = read();
+      }
+    }
+  }
+
+  private void skipPast(String terminator) throws IOException, XMLStreamException {
+    int expected = 0;
+    for (int i = 0; i < terminator.length(); i++) {
+      expected = (expected << 8) | terminator.charAt(i);
+    }
+    int mask = (1 << (8 * terminator.length())) - 1;
+    int last = 0;
+    while ((last & mask) != expected) {
+      int c = read();
+      if (c == EOF) {
+        throw unexpectedEnd();
+      }
+      last = (last << 8) | c;
+    }
+  }
+
+  /**
+   * @return false if the end of the report was reached before the given character
+   */
+  private boolean skipPast(int expected) throws IOException {
+    int c;
+    do {
+      c = read();
+      if (c == EOF) {
+        return false;
+      }
+    } while (c != expected);
+    return true;
+  }
+
+  private int readName(int first) throws IOException {
+    nameLength = 0;
+    int c = first;
+    while (c != EOF && c != '>' && c != '/' && c != '=' && !isWhitespace(c)) {
+      if (nameLength < MAX_NAME_LENGTH) {
+        name[nameLength] = (byte) c;
+      }
+      nameLength++;
+      c = read();
+    }
+    return c;
+  }
+
+  private boolean is(byte[] expected) {
+    if (nameLength != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < nameLength; i++) {
+      if (name[i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int skipWhitespace(int first) throws IOException {
+    int c = first;
+    while (isWhitespace(c)) {
+      c = read();
+    }
+    return c;
+  }
+
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+  }
+
+  private int read() throws IOException {
+    if (pos == limit && !nextWindow()) {
+      return EOF;
+    }
+    return window.get(pos++) & 0xFF;
+  }
+
+  private boolean nextWindow() throws IOException {
+    long start = windowStart + limit;
+    if (start >= fileSize) {
+      return false;
+    }
+    limit = (int) Math.min(windowSize, fileSize - start);
+    window = channel.map(FileChannel.MapMode.READ_ONLY, start, limit);
+    windowStart = start;
+    pos = 0;
+    return true;
+  }
+
+  private static int toInt(long number) {
+    return FileCoverage.saturatedInt(number);
+  }
+
+  private XMLStreamException malformed() {
+    return new XMLStreamException("Malformed Clover report at offset " + (windowStart + pos));
+  }
+
+  private static XMLStreamException unexpectedEnd() {
+    return new XMLStreamException("Unexpected end of Clover report");
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Offsets of the first and after the last byte of each package of a report.
+   */
+  static final class PackageIndex {
+
+    private final long[] starts;
+    private final long[] ends;
+    private final boolean[] tests;
+    private final boolean hasTests;
+    private final Charset charset;
+
+    private PackageIndex(long[] starts, long[] ends, boolean[] tests, boolean hasTests, Charset charset) {
+      this.starts = starts;
+      this.ends = ends;
+      this.tests = tests;
+      this.hasTests = hasTests;
+      this.charset = charset;
+    }
+
+    int size() {
+      return starts.length;
+    }
+
+    long start(int index) {
+      return starts[index];
+    }
+
+    long end(int index) {
+      return ends[index];
+    }
+
+    /**
+     * @return true if the package is in the {@code <testproject>} section
+     */
+    boolean isTests(int index) {
+      return tests[index];
+    }
+
+    /**
+     * @return true if a {@code <testproject>} section was read, even without packages
+     */
+    boolean hasTests() {
+      return hasTests;
+    }
+  }
+}
@@ -22,19 +22,156 @@ package org.sonar.plugins.clover;
 import org.sonar.api.Plugin;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
 
-import java.util.Collections;
+import java.util.Arrays;
 
 @Properties({
     @Property(
         key = CloverSensor.REPORT_PATH_PROPERTY,
         defaultValue = "target/site/clover/clover.xml",
         name = "Clover Report path",
-        description = "Absolute or relative path to the Clover XML report file.",
-        project = true)})
+        description = "Absolute or relative path to the Clover report file, in XML, or in the JSON format of this plugin "
+          + "which transcribes the XML report.",
+        project = true),
+    @Property(
+        key = CloverSensor.REPORT_PATHS_PROPERTY,
+        name = "Clover Report paths",
+        description = "Comma-separated list of absolute or relative paths, or glob patterns, to Clover report files, in XML, or in the JSON format of this plugin. "
+          + "Coverage of files found in several reports is summed. Takes precedence over " + CloverSensor.REPORT_PATH_PROPERTY + ".",
+        project = true,
+        multiValues = true),
+    @Property(
+        key = CloverSensor.PATH_MAPPINGS_PROPERTY,
+        name = "Clover path mappings",
+        description = "Comma-separated list of 'from=to' rules rewriting the beginning of the paths found in Clover reports, "
+          + "for reports produced on another machine. For example: /workspace=/home/ci",
+        project = true,
+        multiValues = true),
+    @Property(
+        key = CloverSensor.INCLUSIONS_PROPERTY,
+        name = "Clover coverage inclusions",
+        description = "Comma-separated list of patterns of the paths of the files whose coverage is read from Clover reports, "
+          + "such as **/src/main/java/**. All the files when empty. '*' matches any characters but slashes, '**' any directories.",
+        project = true,
+        multiValues = true),
+    @Property(
+        key = CloverSensor.EXCLUSIONS_PROPERTY,
+        name = "Clover coverage exclusions",
+        description = "Comma-separated list of patterns of the paths of the files whose coverage is not read from Clover reports, "
+          + "such as **/generated/** or **/*_.java. Patterns ending with /** also skip the packages whose name matches them as a directory.",
+        project = true,
+        multiValues = true),
+    @Property(
+        key = CloverSensor.UNMATCHED_FILES_REPORT_PROPERTY,
+        defaultValue = "false",
+        name = "Clover unmatched files report",
+        description = "Write a JSON summary of the report files which did not match any indexed file to "
+          + UnmatchedFilesDiagnostics.REPORT_FILE_NAME + " in the scanner working directory.",
+        project = true,
+        type = PropertyType.BOOLEAN),
+    @Property(
+        key = CloverSensor.PARSER_PROPERTY,
+        defaultValue = CloverXmlReportParser.STAX_PARSER,
+        name = "Clover report parser",
+        description = "Parser used to read Clover XML reports: '" + CloverXmlReportParser.STAX_PARSER + "' reads them with a StAX parser, '"
+          + CloverXmlReportParser.BYTES_PARSER + "' scans the memory-mapped report for the few elements of the Clover format, which is faster on large reports.",
+        project = true,
+        type = PropertyType.SINGLE_SELECT_LIST,
+        options = {CloverXmlReportParser.STAX_PARSER, CloverXmlReportParser.BYTES_PARSER}),
+    @Property(
+        key = CloverSensor.CACHE_DIR_PROPERTY,
+        name = "Clover cache directory",
+        description = "Directory where parsed Clover reports are cached, keyed by their content, so that analyses of the same "
+          + "report do not parse it again. The directory can be shared by several scanners of the same machine. No cache if empty.",
+        project = true),
+    @Property(
+        key = CloverSensor.CACHE_MAX_SIZE_PROPERTY,
+        defaultValue = "" + CloverXmlReportParser.DEFAULT_CACHE_MAX_SIZE_MB,
+        name = "Clover cache size",
+        description = "Maximum size of the Clover cache directory in MB. The least recently used reports are removed first.",
+        project = true,
+        type = PropertyType.INTEGER),
+    @Property(
+        key = CloverSensor.CHANGED_FILES_ONLY_PROPERTY,
+        defaultValue = "false",
+        name = "Import coverage of changed files only",
+        description = "Only import the coverage of files which were added or changed since the previous analysis, "
+          + "which speeds up pull request and incremental analyses.",
+        project = true,
+        type = PropertyType.BOOLEAN),
+    @Property(
+        key = CloverSensor.TEST_PROJECT_PROPERTY,
+        defaultValue = "false",
+        name = "Import coverage of tests",
+        description = "Also import the coverage of the <testproject> section of Clover reports, in the same read as the <project> section. "
+          + "This coverage only goes to test files.",
+        project = true,
+        type = PropertyType.BOOLEAN),
+    @Property(
+        key = CloverSensor.FILE_METRICS_ONLY_PROPERTY,
+        defaultValue = "false",
+        name = "Import file coverage only",
+        description = "Only read the metrics element of each file of Clover reports, and save the coverage of the files from their "
+          + "statements and conditionals instead of the coverage of their lines. Much faster on large reports, but the coverage of "
+          + "lines is not shown, and the coverage of files found in several reports is the best of the reports. "
+          + "Only supported by SonarQube versions before 7.0, which let sensors save the coverage measures of files; later versions "
+          + "compute these measures from the coverage of lines, so the coverage of lines is imported instead.",
+        project = true,
+        type = PropertyType.BOOLEAN),
+    @Property(
+        key = CloverSensor.PARALLELISM_PROPERTY,
+        name = "Clover parsing threads",
+        description = "Number of threads reading the packages of a large report with the '" + CloverXmlReportParser.BYTES_PARSER + "' parser. "
+          + "Defaults to, and is limited by, the number of processors available to the scanner, which accounts for container CPU quotas.",
+        project = true,
+        type = PropertyType.INTEGER),
+    @Property(
+        key = CloverSensor.IMPORT_STATS_REPORT_PROPERTY,
+        defaultValue = "false",
+        name = "Clover import statistics report",
+        description = "Write the counters and timings of the coverage import, such as the throughput and the latencies of path resolution "
+          + "and of coverage saving, to " + ImportStats.REPORT_FILE_NAME + " in the scanner working directory.",
+        project = true,
+        type = PropertyType.BOOLEAN),
+    @Property(
+        key = CloverSensor.SHARE_REPORTS_PROPERTY,
+        defaultValue = "false",
+        name = "Read Clover reports once per analysis",
+        description = "Read each Clover report once for all the modules of a multi-module project, such as an aggregated report of "
+          + "a Maven reactor, instead of once per module. The coverage of the reports is written to the "
+          + "scanner working directory of the module which reads them, and is removed when the next analysis cleans that directory.",
+        project = true,
+        type = PropertyType.BOOLEAN),
+    @Property(
+        key = CloverSensor.ANALYSIS_CACHE_PROPERTY,
+        defaultValue = "false",
+        name = "Reuse the coverage of the previous analysis",
+        description = "Keep the coverage of the Clover reports in the analysis cache of the server, from SonarQube 9.4 on, so that the "
+          + "next analysis of the branch does not parse the reports which are unchanged. Reports are then hashed, and read in full "
+          + "including the files which are not imported, and their coverage is held in memory until it is stored. Ignored by older "
+          + "servers.",
+        project = true,
+        type = PropertyType.BOOLEAN),
+    @Property(
+        key = CloverSensor.MERGE_MEMORY_BUDGET_PROPERTY,
+        defaultValue = "" + CoverageStore.DEFAULT_MEMORY_BUDGET_MB,
+        name = "Memory budget of the merge of Clover reports",
+        description = "Megabytes of memory, outside of the heap, holding the coverage of the files of several reports until all of them are "
+          + "read. Beyond it, the coverage is spilled to temporary files of the working directory.",
+        project = true,
+        type = PropertyType.INTEGER),
+    @Property(
+        key = CloverSensor.CHECK_INTEGRITY_PROPERTY,
+        defaultValue = "true",
+        name = "Check Clover reports before reading them",
+        description = "Fail at once on Clover reports which were not entirely written, from their last bytes, and on reports which do not "
+          + "match the SHA-256 of their sidecar file, such as clover.xml.sha256, when there is one.",
+        project = true,
+        type = PropertyType.BOOLEAN)})
 public final class CloverPlugin implements Plugin {
 
   public void define(Context context) {
-    context.addExtensions(Collections.singleton(CloverSensor.class));
+    context.addExtensions(Arrays.asList(CloverSensor.class, SharedReports.class));
   }
 }
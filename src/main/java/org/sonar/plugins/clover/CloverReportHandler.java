@@ -0,0 +1,77 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+/**
+ * Receives the coverage data of the files listed in the {@code <project>} section of a Clover report, and optionally
+ * of the {@code <testproject>} section, whatever the way the report is read.
+ */
+interface CloverReportHandler {
+
+  /**
+   * Tells whether the files of a package are wanted, so that readers can skip the whole package. May be called from
+   * any thread.
+   */
+  default boolean acceptsPackage(String name) {
+    return true;
+  }
+
+  /**
+   * @return false if the content of the file must be skipped
+   */
+  boolean startFile(String path);
+
+  /**
+   * Tells ahead of {@link #startFile(String)} whether the content of a file is wanted, so that readers which do not
+   * pass the data straight to this handler can skip it too. May be called from any thread.
+   *
+   * @param test whether the file is listed in the {@code <testproject>} section
+   */
+  default boolean acceptsFile(String path, boolean test) {
+    return true;
+  }
+
+  /**
+   * Called with the {@code elements} metric of the current file, before its lines.
+   */
+  void fileMetrics(boolean hasElements);
+
+  /**
+   * Called after {@link #fileMetrics(boolean)} with the totals of the {@code metrics} element of the current file, in
+   * place of its lines, when only the metrics of the files are read.
+   */
+  default void fileTotals(int statements, int coveredStatements, int conditionals, int coveredConditionals) {
+    // the lines of the file are read by default
+  }
+
+  void lineHits(int line, int hits);
+
+  void conditions(int line, int trueCount, int falseCount);
+
+  void endFile();
+
+  /**
+   * Called once the files of the {@code <project>} section were read, when the files of the {@code <testproject>}
+   * section follow.
+   */
+  default void startTests() {
+    // the files of the tests are handled as the other ones
+  }
+}
@@ -31,21 +31,48 @@ import org.sonar.api.utils.log.Loggers;
 import javax.annotation.Nullable;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class CloverSensor implements Sensor {
 
   static final String REPORT_PATH_PROPERTY = "sonar.clover.reportPath";
+  static final String REPORT_PATHS_PROPERTY = "sonar.clover.reportPaths";
+  static final String PATH_MAPPINGS_PROPERTY = "sonar.clover.pathMappings";
+  static final String INCLUSIONS_PROPERTY = "sonar.clover.inclusions";
+  static final String EXCLUSIONS_PROPERTY = "sonar.clover.exclusions";
+  static final String UNMATCHED_FILES_REPORT_PROPERTY = "sonar.clover.unmatchedFilesReport";
+  static final String PARSER_PROPERTY = "sonar.clover.parser";
+  static final String CACHE_DIR_PROPERTY = "sonar.clover.cacheDir";
+  static final String CACHE_MAX_SIZE_PROPERTY = "sonar.clover.cacheMaxSize";
+  static final String CHANGED_FILES_ONLY_PROPERTY = "sonar.clover.changedFilesOnly";
+  static final String PARALLELISM_PROPERTY = "sonar.clover.parallelism";
+  static final String TEST_PROJECT_PROPERTY = "sonar.clover.importTestProject";
+  static final String FILE_METRICS_ONLY_PROPERTY = "sonar.clover.fileMetricsOnly";
+  static final String IMPORT_STATS_REPORT_PROPERTY = "sonar.clover.importStatsReport";
+  static final String SHARE_REPORTS_PROPERTY = "sonar.clover.shareReports";
+  static final String ANALYSIS_CACHE_PROPERTY = "sonar.clover.analysisCache";
+  static final String MERGE_MEMORY_BUDGET_PROPERTY = "sonar.clover.mergeMemoryBudget";
+  static final String CHECK_INTEGRITY_PROPERTY = "sonar.clover.checkIntegrity";
   static final String MISSING_FILE_MESSAGE = "Clover XML report not found";
   private final FileSystem fs;
   private final PathResolver pathResolver;
   private final Configuration configuration;
+  @Nullable
+  private final SharedReports sharedReports;
 
   @SuppressWarnings("WeakerAccess") // brings compatibility with sonarQube v 6.x
   public CloverSensor(Configuration configuration, FileSystem fs, PathResolver pathResolver) {
+    this(configuration, fs, pathResolver, null);
+  }
+
+  public CloverSensor(Configuration configuration, FileSystem fs, PathResolver pathResolver, @Nullable SharedReports sharedReports) {
     this.configuration = configuration;
     this.fs = fs;
     this.pathResolver = pathResolver;
+    this.sharedReports = sharedReports;
   }
 
   private File getReportFromProperty() {
@@ -57,6 +84,22 @@ public class CloverSensor implements Sensor {
     return null;
   }
 
+  private List<File> getReportsFromProperties() {
+    String[] paths = configuration.getStringArray(REPORT_PATHS_PROPERTY);
+    if (paths.length == 0) {
+      File report = getReportFromProperty();
+      return report == null ? new ArrayList<>() : List.of(report);
+    }
+    ReportLocator locator = new ReportLocator(fs.baseDir(), pathResolver);
+    List<File> reports = new ArrayList<>();
+    for (String path : paths) {
+      if (StringUtils.isNotBlank(path)) {
+        reports.addAll(locator.locate(path));
+      }
+    }
+    return reports;
+  }
+
   private static boolean reportExists(@Nullable File report) {
     return report != null && report.isFile();
   }
@@ -68,9 +111,23 @@ public class CloverSensor implements Sensor {
 
   @Override
   public void execute(SensorContext context) {
-    final File report = getReportFromProperty();
-    if (reportExists(report)) {
-      new CloverXmlReportParser(context, new InputFileProvider(fs)).collect(report);
+    final List<File> reports = getReportsFromProperties().stream()
+      .filter(CloverSensor::reportExists)
+      .distinct()
+      .collect(Collectors.toList());
+    if (!reports.isEmpty()) {
+      ImportEvents.SensorExecution event = new ImportEvents.SensorExecution();
+      event.begin();
+      try {
+        boolean shared = configuration.getBoolean(SHARE_REPORTS_PROPERTY).orElse(false);
+        new CloverXmlReportParser(context, new InputFileProvider(fs), shared ? sharedReports : null).collect(reports);
+      } finally {
+        if (event.shouldCommit()) {
+          event.reports = reports.size();
+          event.bytes = reports.stream().mapToLong(File::length).sum();
+          event.commit();
+        }
+      }
     } else {
       Loggers.get(getClass()).warn(MISSING_FILE_MESSAGE);
     }
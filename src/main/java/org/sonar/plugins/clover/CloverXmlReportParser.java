@@ -20,36 +20,148 @@
 package org.sonar.plugins.clover;
 
 import org.apache.commons.lang.StringUtils;
+import org.codehaus.stax2.XMLStreamReader2;
+import org.codehaus.stax2.typed.TypedXMLStreamException;
 import org.codehaus.staxmate.in.SMEvent;
+import org.codehaus.staxmate.in.SMFilter;
 import org.codehaus.staxmate.in.SMFilterFactory;
 import org.codehaus.staxmate.in.SMInputCursor;
 import org.codehaus.staxmate.in.SimpleFilter;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.batch.sensor.SensorContext;
-import org.sonar.api.batch.sensor.coverage.NewCoverage;
 import org.sonar.api.utils.MessageException;
-import org.sonar.api.utils.ParsingUtils;
+import org.sonar.api.utils.Version;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import javax.xml.stream.XMLStreamException;
 import java.io.File;
-import java.text.ParseException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 class CloverXmlReportParser {
 
+    static final String STAX_PARSER = "stax";
+    static final String BYTES_PARSER = "bytes";
+    static final String JSON_READER = "json";
+    static final long DEFAULT_CACHE_MAX_SIZE_MB = 1024;
+    // sensors can only save the coverage measures of files before this version, later versions compute them from the lines
+    static final Version FILE_METRICS_MAX_VERSION = Version.create(7, 0);
+    private static final int QUEUE_SIZE = 1024;
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final String PROJECT = "project";
+    private static final String TEST_PROJECT = "testproject";
+    private static final SMFilter PROJECTS_FILTER = new SMFilter() {
+        @Override
+        public boolean accept(SMEvent event, SMInputCursor caller) throws XMLStreamException {
+            return event == SMEvent.START_ELEMENT && (PROJECT.equals(caller.getLocalName()) || TEST_PROJECT.equals(caller.getLocalName()));
+        }
+    };
     private static final Logger LOG = Loggers.get(CloverXmlReportParser.class);
     private SensorContext context;
     private final InputFileProvider inputFileProvider;
-    private int files;
-    private int unmatchedFile;
-    private String unmatchedFiles;
+    private final PathRemapper pathRemapper;
+    private final PathFilter pathFilter;
+    private final String parserType;
+    @Nullable
+    private final CoverageCache cache;
+    @Nullable
+    private final SharedReports sharedReports;
+    @Nullable
+    private AnalysisCache analysisCache;
+    private final boolean changedFilesOnly;
+    private final ReadOptions readOptions;
+    private int parallelism;
+    private final long mergeMemoryBudget;
+    private final boolean checkIntegrity;
+    private long parallelParsingMinSize = ParallelReportScanner.DEFAULT_MIN_REPORT_SIZE;
+    // SHA-256 of the reports whose checksum was checked, filled before the reports are read
+    private final Map<File, String> checkedDigests = new ConcurrentHashMap<>();
+    // reader of the reports which were read rather than replayed, for the events of the parsing
+    private final Map<File, String> readers = new ConcurrentHashMap<>();
 
     CloverXmlReportParser(SensorContext context, InputFileProvider inputFileProvider) {
+        this(context, inputFileProvider, null);
+    }
+
+    private static boolean fileMetricsOnly(SensorContext context) {
+        if (!context.config().getBoolean(CloverSensor.FILE_METRICS_ONLY_PROPERTY).orElse(false)) {
+            return false;
+        }
+        Version version = context.runtime().getApiVersion();
+        if (version.isGreaterThanOrEqual(FILE_METRICS_MAX_VERSION)) {
+            LOG.warn("Import of file coverage only is not supported by SonarQube {}, the coverage of lines is imported instead", version);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param sharedReports the reports already read by the other modules of the analysis, null to read the reports again
+     */
+    CloverXmlReportParser(SensorContext context, InputFileProvider inputFileProvider, @Nullable SharedReports sharedReports) {
         this.context = context;
+        this.sharedReports = sharedReports;
         this.inputFileProvider = inputFileProvider;
+        this.pathRemapper = new PathRemapper(context.config().getStringArray(CloverSensor.PATH_MAPPINGS_PROPERTY));
+        this.pathFilter = new PathFilter(context.config().getStringArray(CloverSensor.INCLUSIONS_PROPERTY),
+                context.config().getStringArray(CloverSensor.EXCLUSIONS_PROPERTY));
+        this.parserType = context.config().get(CloverSensor.PARSER_PROPERTY).orElse(STAX_PARSER);
+        this.cache = context.config().get(CloverSensor.CACHE_DIR_PROPERTY)
+                .filter(StringUtils::isNotBlank)
+                .map(dir -> CoverageCache.open(context.fileSystem().resolvePath(dir).toPath(),
+                        context.config().getLong(CloverSensor.CACHE_MAX_SIZE_PROPERTY).orElse(DEFAULT_CACHE_MAX_SIZE_MB) * 1024 * 1024))
+                .orElse(null);
+        this.analysisCache = context.config().getBoolean(CloverSensor.ANALYSIS_CACHE_PROPERTY).orElse(false) ? AnalysisCache.of(context) : null;
+        this.changedFilesOnly = context.config().getBoolean(CloverSensor.CHANGED_FILES_ONLY_PROPERTY).orElse(false);
+        this.readOptions = new ReadOptions(context.config().getBoolean(CloverSensor.TEST_PROJECT_PROPERTY).orElse(false),
+                fileMetricsOnly(context));
+        // the number of available processors accounts for the CPU quota of containers
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.parallelism = Math.max(1, Math.min(processors, context.config().getInt(CloverSensor.PARALLELISM_PROPERTY).orElse(processors)));
+        this.checkIntegrity = context.config().getBoolean(CloverSensor.CHECK_INTEGRITY_PROPERTY).orElse(true);
+        this.mergeMemoryBudget = context.config().getLong(CloverSensor.MERGE_MEMORY_BUDGET_PROPERTY).orElse(CoverageStore.DEFAULT_MEMORY_BUDGET_MB) * 1024 * 1024;
+    }
+
+    /**
+     * Sets the number of threads reading the packages of a report, whatever the number of processors.
+     */
+    void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Reports smaller than the given size are read by a single thread.
+     */
+    void setParallelParsingMinSize(long size) {
+        this.parallelParsingMinSize = size;
+    }
+
+    /**
+     * @param analysisCache the cache kept by the server between analyses, null to not use it
+     */
+    void setAnalysisCache(@Nullable AnalysisCache analysisCache) {
+        this.analysisCache = analysisCache;
     }
 
     private static boolean reportExists(@Nullable File report) {
@@ -57,19 +169,45 @@ class CloverXmlReportParser {
     }
 
     void collect(File xmlFile) {
+        collect(Collections.singletonList(xmlFile));
+    }
+
+    /**
+     * Reads the given reports through a pipeline: each report is parsed on its own thread into per-file records, and
+     * the coverage is saved on the calling thread in report order. The paths are looked up and the files are counted
+     * when the parsing enters a file, so that the content of the files which are not imported is skipped. The parsing
+     * of each report feeds a bounded queue, so that a slow saving holds back the parsing. The coverage of files which appear in several reports is summed before being saved. The counters and timers
+     * of the stages are summarized once all reports are read.
+     */
+    void collect(List<File> xmlFiles) {
         try {
-            if (reportExists(xmlFile)) {
-                files = 0;
-                unmatchedFile = 0;
-                unmatchedFiles = "";
-                LOG.info("Parsing " + xmlFile.getCanonicalPath());
-                createStaxParser().parse(xmlFile);
-                LOG.info("Matched files in report : {}", getMatchedPercentage());
-                if (!unmatchedFiles.isEmpty()) {
-                    LOG.warn("{} files in Clover report did not match any file in SonarQube Index : {}", unmatchedFile,
-                            unmatchedFiles);
+            List<File> reports = xmlFiles.stream().filter(CloverXmlReportParser::reportExists).collect(Collectors.toList());
+            if (!reports.isEmpty()) {
+                if (checkIntegrity) {
+                    // before any coverage is saved
+                    for (File report : reports) {
+                        String sha256 = ReportIntegrity.check(report);
+                        if (sha256 != null) {
+                            checkedDigests.put(report, sha256);
+                        }
+                    }
+                }
+                UnmatchedFilesDiagnostics unmatchedFiles = new UnmatchedFilesDiagnostics();
+                ImportStats stats = new ImportStats();
+                new Pipeline(reports, stats).run(unmatchedFiles);
+                stats.finish(inputFileProvider);
+                LOG.info(stats.summary());
+                LOG.debug(stats.phases());
+                if (context.config().getBoolean(CloverSensor.UNMATCHED_FILES_REPORT_PROPERTY).orElse(false)) {
+                    unmatchedFiles.writeTo(context.fileSystem().workDir());
+                }
+                if (context.config().getBoolean(CloverSensor.IMPORT_STATS_REPORT_PROPERTY).orElse(false)) {
+                    stats.writeTo(context.fileSystem().workDir());
                 }
             }
+        } catch (MessageException e) {
+            LOG.error(e.getMessage());
+            throw e;
         } catch (IllegalArgumentException e) {
             LOG.error("Format of clover report file is unexpected ", e);
             throw e;
@@ -79,115 +217,737 @@ class CloverXmlReportParser {
         }
     }
 
-    private StaxParser createStaxParser() {
-        return new StaxParser(rootCursor -> {
-            try {
-                collectProjectMeasures(rootCursor.advance());
-            } catch (ParseException e) {
-                throw new XMLStreamException(e);
+    private static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the next item of the queue, or the failure of its producer
+     */
+    private static <T> T take(BlockingQueue<T> queue, Future<?> producer) throws Exception {
+        while (true) {
+            T item = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (item != null) {
+                return item;
+            }
+            if (producer.isDone() && queue.isEmpty()) {
+                await(producer);
+                throw new IllegalStateException("Clover report was not entirely read");
             }
+        }
+    }
+
+    private static ExecutorService newExecutor(int threads, String name) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
         });
     }
 
-    private String getMatchedPercentage() {
-        if (files == 0) {
-            return "No files found in <project> section of report";
+    /**
+     * @return the number of bytes of the report which were read, none when its coverage was in a cache or was already
+     * read by another module
+     */
+    private long parse(File xmlFile, CloverReportHandler handler, @Nullable ForkJoinPool packagePool) throws Exception {
+        LOG.info("Parsing " + xmlFile.getCanonicalPath());
+        // entries of the caches hold the lines of the files
+        if ((cache == null && sharedReports == null && analysisCache == null) || readOptions.fileMetricsOnly()) {
+            return readFully(xmlFile, handler, packagePool);
+        }
+        // the report was already hashed when its checksum was checked
+        String sha256 = checkedDigests.get(xmlFile);
+        String contentKey;
+        if (sharedReports != null) {
+            contentKey = sharedReports.keyOf(xmlFile, readOptions.tests(), sha256);
+        } else {
+            contentKey = sha256 != null ? CoverageCache.contentKey(sha256, readOptions.tests()) : CoverageCache.contentKey(xmlFile, readOptions.tests());
+        }
+        // the packages skipped as a whole are not recorded
+        String key = contentKey + pathFilter.packageExclusionsKey();
+        if (sharedReports == null) {
+            return readThroughAnalysisCache(key, xmlFile, handler, packagePool);
+        }
+        if (sharedReports.replay(key, handler)) {
+            LOG.info("Coverage of {} read by a previous module", xmlFile.getName());
+            return 0;
+        }
+        CoverageCache.Recorder recorder = sharedReports.recorder(key, handler, context.fileSystem().workDir().toPath());
+        return record(recorder, () -> readThroughAnalysisCache(key, xmlFile, recorder, packagePool));
+    }
+
+    private long readFully(File xmlFile, CloverReportHandler handler, @Nullable ForkJoinPool packagePool) throws Exception {
+        read(xmlFile, handler, packagePool);
+        return xmlFile.length();
+    }
+
+    private long readThroughAnalysisCache(String key, File xmlFile, CloverReportHandler handler, @Nullable ForkJoinPool packagePool) throws Exception {
+        if (analysisCache == null) {
+            return readThroughCache(key, xmlFile, handler, packagePool);
+        }
+        if (analysisCache.replay(key, handler)) {
+            LOG.info("Coverage of {} read from the previous analysis", xmlFile.getName());
+            return 0;
+        }
+        CoverageCache.Recorder recorder = analysisCache.recorder(key, handler);
+        return record(recorder, () -> readThroughCache(key, xmlFile, recorder, packagePool));
+    }
+
+    private long readThroughCache(String key, File xmlFile, CloverReportHandler handler, @Nullable ForkJoinPool packagePool) throws Exception {
+        if (cache == null) {
+            return readFully(xmlFile, handler, packagePool);
+        }
+        if (cache.replay(key, handler)) {
+            LOG.info("Coverage of {} read from cache {}", xmlFile.getName(), key);
+            return 0;
+        }
+        CoverageCache.Recorder recorder = cache.recorder(key, handler);
+        return record(recorder, () -> readFully(xmlFile, recorder, packagePool));
+    }
+
+    /**
+     * Commits the given recorder once the report is read, or drops what it recorded if the reading fails.
+     */
+    private static long record(CoverageCache.Recorder recorder, Callable<Long> reading) throws Exception {
+        try {
+            long bytes = reading.call();
+            recorder.commit();
+            return bytes;
+        } catch (Exception e) {
+            recorder.abort();
+            throw e;
+        }
+    }
+
+    private void read(File xmlFile, CloverReportHandler handler, @Nullable ForkJoinPool packagePool) throws Exception {
+        String reader = readerOf(xmlFile);
+        readers.put(xmlFile, reader);
+        if (JSON_READER.equals(reader)) {
+            new CoverageJsonReader(handler, readOptions).read(xmlFile);
+        } else if (BYTES_PARSER.equals(reader)) {
+            if (packagePool == null) {
+                new CloverByteScanner(handler, readOptions).scan(xmlFile);
+            } else {
+                new ParallelReportScanner(handler, packagePool, parallelParsingMinSize, readOptions).scan(xmlFile);
+            }
+        } else {
+            createStaxParser(handler, readOptions).parse(xmlFile);
+        }
+    }
+
+    /**
+     * @return the reader of the given report: the JSON reader, or the parser of XML reports which can read it
+     */
+    private String readerOf(File xmlFile) throws IOException {
+        if (ReportStreams.isJson(xmlFile)) {
+            return JSON_READER;
+        }
+        // the byte scanner maps the file, which must not be compressed
+        return BYTES_PARSER.equals(parserType) && ReportStreams.compressionOf(xmlFile) == ReportStreams.Compression.NONE ? BYTES_PARSER : STAX_PARSER;
+    }
+
+    private void saveHitsData(InputFile resource, FileCoverage fileCoverage) {
+        if (!fileCoverage.hasElements()) {
+            // exclude this file if there are no elements to cover
+            ((DefaultInputFile) resource).setExcludedForCoverage(true);
+        }
+        if (!fileCoverage.hasTotals()) {
+            fileCoverage.save(context.newCoverage().onFile(resource));
+        } else if (fileCoverage.hasElements()) {
+            // there is no measure to save on files excluded from coverage
+            fileCoverage.saveTotals(context, resource);
+        }
+    }
+
+    /**
+     * The threads and the queues of the reading of a set of reports.
+     */
+    private class Pipeline {
+
+        private final List<File> reports;
+        private final ImportStats stats;
+        private final List<BlockingQueue<ResolvedFile>> resolvedFiles = new ArrayList<>();
+        private final List<Future<?>> parsers = new ArrayList<>();
+        private ImportEvents.CoverageSave saveBatch;
+
+        Pipeline(List<File> reports, ImportStats stats) {
+            this.reports = reports;
+            this.stats = stats;
+        }
+
+        void run(UnmatchedFilesDiagnostics unmatchedFiles) throws Exception {
+            ExecutorService parserExecutor = newExecutor(Math.min(reports.size(), Runtime.getRuntime().availableProcessors()), "clover-report-parser");
+            // packages of large reports are read in parallel by the byte scanner only
+            ForkJoinPool packagePool = BYTES_PARSER.equals(parserType) && parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+            try {
+                for (File report : reports) {
+                    BlockingQueue<ResolvedFile> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+                    resolvedFiles.add(queue);
+                    parsers.add(parserExecutor.submit(() -> {
+                        ImportEvents.ReportParse event = new ImportEvents.ReportParse();
+                        event.begin();
+                        long start = System.nanoTime();
+                        ParsedFileEmitter emitter = new ParsedFileEmitter(queue, stats);
+                        long bytes = parse(report, emitter, packagePool);
+                        stats.addReport(bytes, System.nanoTime() - start);
+                        if (event.shouldCommit()) {
+                            event.report = report.getPath();
+                            event.parser = readers.get(report);
+                            event.bytes = bytes;
+                            event.files = emitter.reportFiles;
+                            event.lines = emitter.reportLines;
+                            event.conditions = emitter.reportConditions;
+                            event.commit();
+                        }
+                        queue.put(new ResolvedFile(null, null, emitter.resolution));
+                        return null;
+                    }));
+                }
+                save(unmatchedFiles);
+            } finally {
+                // stops the stages blocked on a full queue when the saving failed
+                parserExecutor.shutdownNow();
+                if (packagePool != null) {
+                    packagePool.shutdownNow();
+                }
+            }
+        }
+
+        private void save(UnmatchedFilesDiagnostics unmatchedFiles) throws Exception {
+            // files are merged across reports, but those of a single report are saved as soon as they are parsed
+            try (CoverageStore coverages = new CoverageStore(() -> context.fileSystem().workDir().toPath(), mergeMemoryBudget)) {
+                for (int i = 0; i < reports.size(); i++) {
+                    ResolvedFile file;
+                    while ((file = take(resolvedFiles.get(i), parsers.get(i))).resolution == null) {
+                        if (reports.size() == 1) {
+                            save(file.inputFile, file.coverage);
+                        } else {
+                            coverages.add(file.inputFile, file.coverage);
+                        }
+                    }
+                    file.resolution.log();
+                    unmatchedFiles.addAll(file.resolution.unmatchedFiles);
+                }
+                coverages.forEachMerged(this::save);
+                if (coverages.spilledRuns() > 0) {
+                    LOG.info("Coverage of the reports merged from {} runs spilled to disk", coverages.spilledRuns() + 1);
+                }
+            }
+            commitSaveBatch();
+        }
+
+        private void save(InputFile inputFile, FileCoverage coverage) {
+            if (!coverage.hasElements()) {
+                stats.addExcludedFile();
+            }
+            if (saveBatch == null) {
+                saveBatch = new ImportEvents.CoverageSave();
+                saveBatch.begin();
+            }
+            long start = System.nanoTime();
+            saveHitsData(inputFile, coverage);
+            stats.saving().record(System.nanoTime() - start);
+            saveBatch.files++;
+            saveBatch.lines += coverage.lineCount();
+            saveBatch.conditions += coverage.conditionCount();
+            if (saveBatch.files == ImportEvents.CoverageSave.BATCH_SIZE) {
+                commitSaveBatch();
+            }
+        }
+
+        private void commitSaveBatch() {
+            if (saveBatch != null) {
+                saveBatch.commit();
+                saveBatch = null;
+            }
+        }
+    }
+
+    private static final class ResolvedFile {
+
+        private final InputFile inputFile;
+        private final FileCoverage coverage;
+        // set at the end of each report
+        private final ReportResolution resolution;
+
+        ResolvedFile(@Nullable InputFile inputFile, @Nullable FileCoverage coverage, @Nullable ReportResolution resolution) {
+            this.inputFile = inputFile;
+            this.coverage = coverage;
+            this.resolution = resolution;
+        }
+    }
+
+    /**
+     * Turns the content of each file of a report into a {@link ResolvedFile}, on the thread which parses the report. The
+     * files are counted by the {@link ReportResolution} of the report, the content of the files which are not imported
+     * is not read, and the packages and files filtered out by the
+     * inclusions and exclusions are dropped before their path is looked up.
+     */
+    private class ParsedFileEmitter implements CloverReportHandler {
+
+        private final BlockingQueue<ResolvedFile> queue;
+        private final ImportStats stats;
+        private final ReportResolution resolution;
+        private final LineHitsBuffer buffer = new LineHitsBuffer();
+        // the files looked up by acceptsFile on the threads reading packages ahead, until startFile takes them
+        private final Map<String, Optional<InputFile>> lookedUpFiles = new ConcurrentHashMap<>();
+        private String path;
+        private InputFile inputFile;
+        private boolean hasElements;
+        private boolean tests;
+        private int[] totals;
+        private int lines;
+        private int conditions;
+        // of the whole report
+        private int reportFiles;
+        private long reportLines;
+        private long reportConditions;
+
+        ParsedFileEmitter(BlockingQueue<ResolvedFile> queue, ImportStats stats) {
+            this.queue = queue;
+            this.stats = stats;
+            this.resolution = new ReportResolution(stats);
+        }
+
+        @Override
+        public boolean acceptsPackage(String name) {
+            if (!pathFilter.acceptsPackage(name)) {
+                stats.addFilteredPackage();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean acceptsFile(String reportPath, boolean test) {
+            String remappedPath = pathRemapper.remap(reportPath);
+            if (!pathFilter.accepts(remappedPath)) {
+                return false;
+            }
+            InputFile resource = lookup(remappedPath);
+            lookedUpFiles.put(remappedPath, Optional.ofNullable(resource));
+            return isImported(resource, test);
+        }
+
+        @Override
+        public boolean startFile(String reportPath) {
+            path = pathRemapper.remap(reportPath);
+            if (!pathFilter.accepts(path)) {
+                // neither looked up nor counted as a file of the report
+                stats.addFilteredFile();
+                return false;
+            }
+            Optional<InputFile> lookedUp = lookedUpFiles.remove(path);
+            inputFile = resolution.resolve(path, lookedUp != null ? lookedUp.orElse(null) : lookup(path), tests);
+            reportFiles++;
+            if (inputFile == null) {
+                stats.addFile(0, 0);
+                return false;
+            }
+            hasElements = false;
+            totals = null;
+            lines = 0;
+            conditions = 0;
+            buffer.reset();
+            return true;
+        }
+
+        @Override
+        public void fileMetrics(boolean hasElements) {
+            this.hasElements |= hasElements;
+        }
+
+        @Override
+        public void lineHits(int line, int hits) {
+            lines++;
+            buffer.addLineHits(line, hits);
+        }
+
+        @Override
+        public void conditions(int line, int trueCount, int falseCount) {
+            conditions++;
+            buffer.addConditions(line, trueCount, falseCount);
+        }
+
+        @Override
+        public void endFile() {
+            stats.addFile(lines, conditions);
+            reportLines += lines;
+            reportConditions += conditions;
+            FileCoverage coverage = totals == null ? buffer.toFileCoverage(hasElements)
+                    : FileCoverage.ofTotals(hasElements, totals[0], totals[1], totals[2], totals[3]);
+            put(new ResolvedFile(inputFile, coverage, null));
+        }
+
+        @CheckForNull
+        private InputFile lookup(String remappedPath) {
+            ImportEvents.PathResolutionMiss miss = null;
+            if (ImportEvents.isPathResolutionMissEnabled()) {
+                miss = new ImportEvents.PathResolutionMiss();
+                miss.begin();
+            }
+            long start = System.nanoTime();
+            InputFile resource = inputFileProvider.fromPath(remappedPath);
+            stats.pathResolution().record(System.nanoTime() - start);
+            if (resource == null && miss != null && miss.shouldCommit()) {
+                miss.path = remappedPath;
+                miss.commit();
+            }
+            return resource;
+        }
+
+        private void put(ResolvedFile file) {
+            try {
+                queue.put(file);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Parsing of Clover report was cancelled");
+            }
+        }
+
+        @Override
+        public void fileTotals(int statements, int coveredStatements, int conditionals, int coveredConditionals) {
+            totals = new int[] {statements, coveredStatements, conditionals, coveredConditionals};
+        }
+
+        @Override
+        public void startTests() {
+            tests = true;
+        }
+    }
+
+    /**
+     * @return true if the coverage of the given file, found in the project or in the tests of a report, is imported
+     */
+    private boolean isImported(@Nullable InputFile inputFile, boolean test) {
+        return inputFile != null
+                && !(changedFilesOnly && inputFile.status() == InputFile.Status.SAME)
+                && !(test && inputFile.type() != InputFile.Type.TEST);
+    }
+
+    /**
+     * Sorts out the files of a single report, and counts the files which were not found or not imported.
+     */
+    private class ReportResolution {
+
+        private final UnmatchedFilesDiagnostics unmatchedFiles = new UnmatchedFilesDiagnostics();
+        private final ImportStats stats;
+        private int files;
+        private int unchangedFiles;
+        private int nonTestFiles;
+
+        ReportResolution(ImportStats stats) {
+            this.stats = stats;
+        }
+
+        private String getMatchedPercentage() {
+            if (files == 0) {
+                return "No files found in <project> section of report";
+            }
+            return (files - unmatchedFiles.count()) * 100 / files + "%";
+        }
+
+        @CheckForNull
+        private InputFile resolve(String path, @Nullable InputFile resource, boolean test) {
+            files++;
+            if (resource == null) {
+                LOG.debug("Resource {} was not found.", path);
+                unmatchedFiles.add(path);
+                stats.addUnmatchedFile();
+                return null;
+            }
+            if (changedFilesOnly && resource.status() == InputFile.Status.SAME) {
+                unchangedFiles++;
+                stats.addUnchangedFile();
+                return null;
+            }
+            if (test && resource.type() != InputFile.Type.TEST) {
+                // coverage of the tests only goes to test files
+                LOG.debug("Resource {} of the tests is not a test file.", path);
+                nonTestFiles++;
+                return null;
+            }
+            return resource;
+        }
+
+        private void log() {
+            LOG.info("Matched files in report : {}", getMatchedPercentage());
+            if (changedFilesOnly) {
+                LOG.info("Coverage of {} unchanged files was not imported", unchangedFiles);
+            }
+            if (nonTestFiles > 0) {
+                LOG.warn("Coverage of {} files of the tests was not imported, they are not test files", nonTestFiles);
+            }
+            if (unmatchedFiles.count() > 0) {
+                LOG.warn("{} files in Clover report did not match any file in SonarQube Index, mostly in : {}",
+                        unmatchedFiles.count(), unmatchedFiles.summary());
+            }
         }
-        return (files - unmatchedFile) * 100 / files + "%";
     }
 
-    private void collectProjectMeasures(SMInputCursor rootCursor) throws ParseException, XMLStreamException {
-        SMInputCursor projectCursor = rootCursor.descendantElementCursor("project");
-        SMInputCursor projectChildrenCursor = projectCursor.advance().childElementCursor();
+    static StaxParser createStaxParser(CloverReportHandler handler) {
+        return createStaxParser(handler, ReadOptions.DEFAULT);
+    }
+
+    static StaxParser createStaxParser(CloverReportHandler handler, ReadOptions options) {
+        return new StaxParser(rootCursor -> collectProjectMeasures(rootCursor.advance(), handler, options));
+    }
+
+    private static void collectProjectMeasures(SMInputCursor rootCursor, CloverReportHandler handler, ReadOptions options) throws XMLStreamException {
+        SMInputCursor projectCursor = rootCursor.descendantCursor(PROJECTS_FILTER);
+        boolean projectRead = false;
+        // the attributes are resolved once for the whole report
+        ElementAttributes attributes = new ElementAttributes();
+        while (projectCursor.getNext() != null) {
+            if (!TEST_PROJECT.equals(projectCursor.getLocalName())) {
+                collectSectionMeasures(projectCursor, handler, options, attributes);
+                projectRead = true;
+                if (!options.tests()) {
+                    return;
+                }
+            } else if (projectRead) {
+                handler.startTests();
+                collectSectionMeasures(projectCursor, handler, options, attributes);
+                return;
+            }
+        }
+        if (!projectRead) {
+            throw new XMLStreamException("No <project> element found in Clover report");
+        }
+    }
+
+    private static void collectSectionMeasures(SMInputCursor sectionCursor, CloverReportHandler handler, ReadOptions options,
+            ElementAttributes attributes) throws XMLStreamException {
+        SMInputCursor projectChildrenCursor = sectionCursor.childElementCursor();
         projectChildrenCursor.setFilter(new SimpleFilter(SMEvent.START_ELEMENT));
         //Skip the metrics tag.
         projectChildrenCursor.advance();
-        collectPackageMeasures(projectChildrenCursor);
+        collectPackageMeasures(projectChildrenCursor, handler, options, attributes);
     }
 
-    private void collectPackageMeasures(SMInputCursor packCursor) throws ParseException, XMLStreamException {
+    private static void collectPackageMeasures(SMInputCursor packCursor, CloverReportHandler handler, ReadOptions options,
+            ElementAttributes attributes) throws XMLStreamException {
+        XMLStreamReader2 reader = packCursor.getStreamReader();
+        // a package ends where the next one starts, as skipped packages are only read through by the cursor, and its size
+        // is counted in characters, the reader knowing no byte offsets
+        ImportEvents.PackageRead event = null;
+        long packageStart = 0;
         while (packCursor.getNext() != null) {
+            commitPackageEvent(event, packageStart, reader);
+            event = null;
+            if (ImportEvents.isPackageReadEnabled()) {
+                event = new ImportEvents.PackageRead();
+                event.begin();
+                packageStart = reader.getLocationInfo().getStartingCharOffset();
+            }
+            String name = packCursor.getAttrValue("name");
+            if (name != null && !handler.acceptsPackage(name)) {
+                if (event != null) {
+                    event.name = name;
+                    event.skipped = true;
+                }
+                continue;
+            }
+            if (event != null) {
+                event.name = name;
+            }
             SMInputCursor packChildrenCursor = packCursor.descendantElementCursor();
             packChildrenCursor.setFilter(new SimpleFilter(SMEvent.START_ELEMENT));
             //Skip the metrics tag.
             packChildrenCursor.advance();
-            collectFileMeasures(packChildrenCursor);
+            collectFileMeasures(packChildrenCursor, handler, options, attributes, event);
+        }
+        commitPackageEvent(event, packageStart, reader);
+    }
+
+    private static void commitPackageEvent(@Nullable ImportEvents.PackageRead event, long packageStart, XMLStreamReader2 reader) {
+        if (event != null && event.shouldCommit()) {
+            event.bytes = reader.getLocationInfo().getStartingCharOffset() - packageStart;
+            event.commit();
         }
     }
 
-    private void collectFileMeasures(SMInputCursor fileCursor) throws ParseException, XMLStreamException {
+    private static void collectFileMeasures(SMInputCursor fileCursor, CloverReportHandler handler, ReadOptions options,
+            ElementAttributes attributes, @Nullable ImportEvents.PackageRead event) throws XMLStreamException {
         fileCursor.setFilter(SMFilterFactory.getElementOnlyFilter("file"));
         while (fileCursor.getNext() != null) {
             if (fileCursor.asEvent().isStartElement()) {
                 String path = fileCursor.getAttrValue("path");
                 if (path != null) {
                     SMInputCursor fileChildrenCursor = fileCursor.childCursor(new SimpleFilter(SMEvent.START_ELEMENT));
-                    InputFile resource = getInputFile(path);
-                    if (resource != null) {
-                        saveHitsData(resource, fileChildrenCursor);
+                    int lines = 0;
+                    if (handler.startFile(path)) {
+                        lines = collectHitsData(handler, fileChildrenCursor, options, attributes);
+                        handler.endFile();
+                    }
+                    if (event != null) {
+                        event.files++;
+                        event.lines += lines;
                     }
                 }
             }
         }
     }
 
-    private InputFile getInputFile(String path) {
-        files++;
-        InputFile resource = inputFileProvider.fromPath(path);
-        if (resource == null) {
-            unmatchedFile++;
-            LOG.warn("Resource " + path + " was not found.");
-            unmatchedFiles += path + ", ";
-        }
-        return resource;
-    }
-
-    private void saveHitsData(InputFile resource, SMInputCursor lineCursor) throws ParseException, XMLStreamException {
-        final NewCoverage coverage = context.newCoverage().onFile(resource);
+    /**
+     * @return the number of line elements of the file
+     */
+    private static int collectHitsData(CloverReportHandler handler, SMInputCursor lineCursor, ReadOptions options,
+            ElementAttributes attributes) throws XMLStreamException {
         // cursor should be on the metrics element
-        if (!canBeIncludedInFileMetrics(lineCursor)) {
-            // cursor should now be on the line cursor; exclude this file if there are no elements to cover
-            ((DefaultInputFile) resource).setExcludedForCoverage(true);
+        skipClasses(lineCursor);
+        XMLStreamReader2 reader = lineCursor.getStreamReader();
+        AttributeIndexes metrics = attributes.of(reader);
+        handler.fileMetrics(metrics.number(reader, AttributeIndexes.ELEMENTS) > 0);
+        if (options.fileMetricsOnly()) {
+            // the lines are skipped with the file
+            handler.fileTotals(metrics.count(reader, AttributeIndexes.STATEMENTS), metrics.count(reader, AttributeIndexes.COVERED_STATEMENTS),
+                    metrics.count(reader, AttributeIndexes.CONDITIONALS), metrics.count(reader, AttributeIndexes.COVERED_CONDITIONALS));
+            return 0;
         }
 
+        int lines = 0;
         while (lineCursor.getNext() != null) {
             // skip class elements on format 2_3_2
             if (isClass(lineCursor)) {
                 continue;
             }
-            final int lineId = Integer.parseInt(lineCursor.getAttrValue("num"));
-            String count = lineCursor.getAttrValue("count");
-            if (StringUtils.isNotBlank(count)) {
-                final int hits = Integer.parseInt(count);
-                coverage.lineHits(lineId, hits);
+            lines++;
+            AttributeIndexes line = attributes.of(reader);
+            long lineId = line.number(reader, AttributeIndexes.NUM);
+            if (lineId < 0 || lineId > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Invalid line number in Clover report: " + lineId);
+            }
+            long hits = line.number(reader, AttributeIndexes.COUNT);
+            if (hits != AttributeIndexes.BLANK) {
+                handler.lineHits((int) lineId, FileCoverage.saturatedInt(hits));
             } else {
-                int trueCount = (int) ParsingUtils.parseNumber(lineCursor.getAttrValue("truecount"));
-                int falseCount = (int) ParsingUtils.parseNumber(lineCursor.getAttrValue("falsecount"));
-                int coveredConditions = 0;
-                if (trueCount > 0) {
-                    coveredConditions++;
-                }
-                if (falseCount > 0) {
-                    coveredConditions++;
-                }
-
-                coverage.conditions(lineId, 2, coveredConditions);
+                handler.conditions((int) lineId, line.count(reader, AttributeIndexes.TRUE_COUNT), line.count(reader, AttributeIndexes.FALSE_COUNT));
             }
         }
-
-        coverage.save();
+        return lines;
     }
 
-    private static boolean canBeIncludedInFileMetrics(SMInputCursor metricsCursor)
-            throws ParseException, XMLStreamException {
+    private static void skipClasses(SMInputCursor metricsCursor) throws XMLStreamException {
         while (metricsCursor.getNext() != null && isClass(metricsCursor)) {
             // skip class elements on 1.x xml format
         }
-
-        return ParsingUtils.parseNumber(metricsCursor.getAttrValue("elements")) > 0;
     }
 
     private static boolean isClass(SMInputCursor cursor) throws XMLStreamException {
         return "class".equals(cursor.getLocalName());
     }
+
+    /**
+     * The indexes of the numeric attributes of the elements with a given list of attributes. Clover writes the
+     * attributes of each kind of element in the same order, so that their indexes are resolved once per kind of element
+     * rather than by name on each element, and their values are decoded without creating strings.
+     */
+    static final class AttributeIndexes {
+
+        static final long BLANK = -1;
+        static final int NUM = 0;
+        static final int COUNT = 1;
+        static final int TRUE_COUNT = 2;
+        static final int FALSE_COUNT = 3;
+        static final int ELEMENTS = 4;
+        static final int STATEMENTS = 5;
+        static final int COVERED_STATEMENTS = 6;
+        static final int CONDITIONALS = 7;
+        static final int COVERED_CONDITIONALS = 8;
+        private static final String[] NAMES = {"num", "count", "truecount", "falsecount", "elements", "statements",
+            "coveredstatements", "conditionals", "coveredconditionals"};
+
+        private final String[] names;
+        private final int[] indexes = new int[NAMES.length];
+
+        AttributeIndexes(XMLStreamReader2 reader) {
+            names = new String[reader.getAttributeCount()];
+            Arrays.fill(indexes, -1);
+            for (int i = 0; i < names.length; i++) {
+                names[i] = reader.getAttributeLocalName(i);
+                for (int a = 0; a < NAMES.length; a++) {
+                    if (NAMES[a].equals(names[i])) {
+                        indexes[a] = i;
+                    }
+                }
+            }
+        }
+
+        boolean matches(XMLStreamReader2 reader) {
+            if (reader.getAttributeCount() != names.length) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                // the names are interned by the reader, the comparison is usually by reference
+                if (!names[i].equals(reader.getAttributeLocalName(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the value of the given attribute, {@link #BLANK} if it is missing or blank
+         */
+        long number(XMLStreamReader2 reader, int attribute) throws XMLStreamException {
+            int index = indexes[attribute];
+            if (index < 0) {
+                return BLANK;
+            }
+            long value;
+            try {
+                value = reader.getAttributeAsLong(index);
+            } catch (TypedXMLStreamException e) {
+                // rare enough for the value to be read as a string
+                String text = reader.getAttributeValue(index).trim();
+                if (text.isEmpty()) {
+                    return BLANK;
+                } else if (text.chars().allMatch(Character::isDigit)) {
+                    return Long.MAX_VALUE;
+                }
+                throw new NumberFormatException("Invalid number in Clover report: " + text);
+            }
+            if (value < 0) {
+                throw new NumberFormatException("Invalid number in Clover report: " + value);
+            }
+            return value;
+        }
+
+        /**
+         * @return the value of the given attribute, capped to the largest int, 0 if it is missing or blank
+         */
+        int count(XMLStreamReader2 reader, int attribute) throws XMLStreamException {
+            return FileCoverage.saturatedInt(Math.max(0, number(reader, attribute)));
+        }
+    }
+
+    /**
+     * The attribute indexes of the last two kinds of elements, usually the lines of statements and of conditions.
+     */
+    static final class ElementAttributes {
+
+        private AttributeIndexes last;
+        private AttributeIndexes previous;
+
+        AttributeIndexes of(XMLStreamReader2 reader) {
+            if (last != null && last.matches(reader)) {
+                return last;
+            }
+            AttributeIndexes indexes = previous != null && previous.matches(reader) ? previous : new AttributeIndexes(reader);
+            previous = last;
+            last = indexes;
+            return indexes;
+        }
+    }
 }
@@ -0,0 +1,524 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local cache of parsed Clover reports, shared by the analyses running on the same machine. Entries are keyed by the
+ * SHA-256 of the report content and hold the coverage of every file of the report in a compact binary form, where
+ * consecutive lines with the same hits are run-length encoded. A cache hit replays the entry to the
+ * {@link CloverReportHandler} without reading the XML. Reports read with their {@code <testproject>} section have
+ * entries of their own.
+ * <p>
+ * Entries are written to a temporary file then atomically renamed. Renames and evictions happen under a lock on a
+ * file of the cache directory, so that concurrent scanner processes can share it. When the size of the entries exceeds
+ * the budget, the least recently used ones are deleted. The temporary files left behind by the scanner processes which
+ * were killed while writing an entry are deleted when the cache is opened.
+ */
+class CoverageCache {
+
+  private static final Logger LOG = Loggers.get(CoverageCache.class);
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAGIC = 0x434c5643;
+  static final String ENTRY_SUFFIX = ".bin";
+  private static final String LOCK_FILE = "cache.lock";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+  // much longer than the reading of a report
+  private static final long STALE_TEMPORARY_FILE_AGE_MS = TimeUnit.DAYS.toMillis(1);
+  private static final int FILE_RECORD = 'F';
+  private static final int TESTS_RECORD = 'T';
+  private static final int END_RECORD = 'E';
+  // file locks are held by the whole JVM, so threads of this process must not ask for them concurrently
+  private static final Object JVM_LOCK = new Object();
+
+  private final Path directory;
+  private final long maxSize;
+
+  CoverageCache(Path directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return the cache of the given directory, once the stale temporary files of its entries are deleted
+   */
+  static CoverageCache open(Path directory, long maxSize) {
+    CoverageCache cache = new CoverageCache(directory, maxSize);
+    if (Files.isDirectory(directory)) {
+      try {
+        cache.withLock(() -> {
+          cache.deleteStaleTemporaryFiles();
+          return null;
+        });
+      } catch (IOException e) {
+        LOG.debug("Unable to delete the stale temporary files of Clover cache " + directory, e);
+      }
+    }
+    return cache;
+  }
+
+  String keyOf(File report) throws IOException {
+    return keyOf(report, false);
+  }
+
+  String keyOf(File report, boolean withTests) throws IOException {
+    return contentKey(report, withTests);
+  }
+
+  /**
+   * @return the key of the entries of the given report, made of the SHA-256 of its content
+   */
+  static String contentKey(File report, boolean withTests) throws IOException {
+    return contentKey(sha256Of(report), withTests);
+  }
+
+  /**
+   * @param sha256 the SHA-256 of the content of the report, as returned by {@link #sha256Of(File)}
+   */
+  static String contentKey(String sha256, boolean withTests) {
+    StringBuilder key = new StringBuilder(sha256);
+    key.append("-v").append(FORMAT_VERSION);
+    return withTests ? key.append("-tests").toString() : key.toString();
+  }
+
+  /**
+   * @return the SHA-256 of the content of the given file, in lower case hexadecimal
+   */
+  static String sha256Of(File file) throws IOException {
+    MessageDigest digest = sha256();
+    try (InputStream input = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+      byte[] buffer = new byte[1 << 16];
+      while (input.read(buffer) != -1) {
+        // only digest the content
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * @return false if there is no entry for the given key
+   */
+  boolean replay(String key, CloverReportHandler handler) throws IOException {
+    Path entry = directory.resolve(key + ENTRY_SUFFIX);
+    InputStream input;
+    try {
+      input = withLock(() -> {
+        // opened files can still be read once deleted by another process
+        InputStream opened = Files.newInputStream(entry);
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        return opened;
+      });
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+    replay(input, handler, entry.toString());
+    return true;
+  }
+
+  /**
+   * Passes the data of the entry read from the given input to the handler, and closes the input.
+   */
+  static void replay(InputStream input, CloverReportHandler handler, String entry) throws IOException {
+    try (DataInputStream data = new DataInputStream(new BufferedInputStream(input, 1 << 16))) {
+      if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION) {
+        throw new IOException("Invalid Clover cache entry " + entry);
+      }
+      int record;
+      while ((record = data.read()) == FILE_RECORD || record == TESTS_RECORD) {
+        if (record == TESTS_RECORD) {
+          handler.startTests();
+        } else {
+          replayFile(data, handler);
+        }
+      }
+      if (record != END_RECORD) {
+        throw new EOFException("Truncated Clover cache entry " + entry);
+      }
+    }
+  }
+
+  private static void replayFile(DataInputStream data, CloverReportHandler handler) throws IOException {
+    boolean accepted = handler.startFile(data.readUTF());
+    int metrics = data.read();
+    if (accepted && metrics != 0) {
+      handler.fileMetrics(metrics == 2);
+    }
+    int runs = readVarInt(data);
+    int line = 0;
+    for (int i = 0; i < runs; i++) {
+      line += readZigZag(data);
+      int length = readVarInt(data);
+      int hits = readVarInt(data);
+      for (int j = 0; accepted && j < length; j++) {
+        handler.lineHits(line + j, hits);
+      }
+      line += length - 1;
+    }
+    int conditions = readVarInt(data);
+    line = 0;
+    for (int i = 0; i < conditions; i++) {
+      line += readZigZag(data);
+      int trueCount = readVarInt(data);
+      int falseCount = readVarInt(data);
+      if (accepted) {
+        handler.conditions(line, trueCount, falseCount);
+      }
+    }
+    if (accepted) {
+      handler.endFile();
+    }
+  }
+
+  /**
+   * @return a handler which forwards the data of the report to the given handler, and records the data of all the
+   * files, matched or not, in a new entry
+   */
+  Recorder recorder(String key, CloverReportHandler delegate) throws IOException {
+    Files.createDirectories(directory);
+    return new EntryRecorder(key, delegate);
+  }
+
+  private void evict() throws IOException {
+    List<Path> entries;
+    try (Stream<Path> files = Files.list(directory)) {
+      entries = files.filter(path -> path.getFileName().toString().endsWith(ENTRY_SUFFIX))
+        .sorted(Comparator.comparing(CoverageCache::lastModified).reversed())
+        .collect(Collectors.toList());
+    }
+    long size = 0;
+    for (Path entry : entries) {
+      size += Files.size(entry);
+      if (size > maxSize) {
+        LOG.debug("Evicting Clover cache entry {}", entry);
+        try {
+          Files.deleteIfExists(entry);
+        } catch (IOException e) {
+          LOG.debug("Unable to evict Clover cache entry " + entry, e);
+        }
+      }
+    }
+  }
+
+  private void deleteStaleTemporaryFiles() throws IOException {
+    long staleBefore = System.currentTimeMillis() - STALE_TEMPORARY_FILE_AGE_MS;
+    List<Path> temporaryFiles;
+    try (Stream<Path> files = Files.list(directory)) {
+      temporaryFiles = files.filter(path -> path.getFileName().toString().endsWith(TEMPORARY_SUFFIX))
+        .filter(path -> lastModified(path).toMillis() < staleBefore)
+        .collect(Collectors.toList());
+    }
+    for (Path temporary : temporaryFiles) {
+      LOG.debug("Deleting stale Clover cache file {}", temporary);
+      try {
+        Files.deleteIfExists(temporary);
+      } catch (IOException e) {
+        LOG.debug("Unable to delete stale Clover cache file " + temporary, e);
+      }
+    }
+  }
+
+  private static FileTime lastModified(Path path) {
+    try {
+      return Files.getLastModifiedTime(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private <T> T withLock(IOAction<T> action) throws IOException {
+    synchronized (JVM_LOCK) {
+      Files.createDirectories(directory);
+      try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = channel.lock()) {
+        return action.run();
+      }
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    int v = value;
+    while ((v & ~0x7f) != 0) {
+      out.write((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    out.write(v);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Invalid variable length integer");
+  }
+
+  private static void writeZigZag(DataOutputStream out, int value) throws IOException {
+    writeVarInt(out, (value << 1) ^ (value >> 31));
+  }
+
+  private static int readZigZag(DataInputStream in) throws IOException {
+    int value = readVarInt(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  @FunctionalInterface
+  private interface IOAction<T> {
+    T run() throws IOException;
+  }
+
+  /**
+   * Forwards the data of a report to a handler, and writes the data of all the files to an entry.
+   */
+  static class Recorder implements CloverReportHandler {
+
+    private final CloverReportHandler delegate;
+    private final DataOutputStream out;
+    private boolean accepted;
+    private int metrics;
+    private int[] hits = new int[64];
+    private int hitsLength;
+    private int[] conditions = new int[48];
+    private int conditionsLength;
+
+    Recorder(CloverReportHandler delegate, OutputStream output) throws IOException {
+      this.delegate = delegate;
+      this.out = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+    }
+
+    /**
+     * The packages rejected by the handler are not recorded, so that the key of the entry has to tell which packages
+     * are rejected.
+     */
+    @Override
+    public boolean acceptsPackage(String name) {
+      return delegate.acceptsPackage(name);
+    }
+
+    @Override
+    public boolean startFile(String path) {
+      try {
+        out.write(FILE_RECORD);
+        out.writeUTF(path);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      accepted = delegate.startFile(path);
+      metrics = 0;
+      hitsLength = 0;
+      conditionsLength = 0;
+      // all files are recorded, whether they match or not
+      return true;
+    }
+
+    @Override
+    public void fileMetrics(boolean hasElements) {
+      metrics = hasElements ? 2 : 1;
+      if (accepted) {
+        delegate.fileMetrics(hasElements);
+      }
+    }
+
+    @Override
+    public void lineHits(int line, int lineHits) {
+      if (hitsLength == hits.length) {
+        hits = Arrays.copyOf(hits, hits.length * 2);
+      }
+      hits[hitsLength++] = line;
+      hits[hitsLength++] = lineHits;
+      if (accepted) {
+        delegate.lineHits(line, lineHits);
+      }
+    }
+
+    @Override
+    public void conditions(int line, int trueCount, int falseCount) {
+      if (conditionsLength == conditions.length) {
+        conditions = Arrays.copyOf(conditions, conditions.length * 2);
+      }
+      conditions[conditionsLength++] = line;
+      conditions[conditionsLength++] = trueCount;
+      conditions[conditionsLength++] = falseCount;
+      if (accepted) {
+        delegate.conditions(line, trueCount, falseCount);
+      }
+    }
+
+    @Override
+    public void endFile() {
+      try {
+        out.write(metrics);
+        writeHits();
+        writeVarInt(out, conditionsLength / 3);
+        int previous = 0;
+        for (int i = 0; i < conditionsLength; i += 3) {
+          writeZigZag(out, conditions[i] - previous);
+          writeVarInt(out, conditions[i + 1]);
+          writeVarInt(out, conditions[i + 2]);
+          previous = conditions[i];
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (accepted) {
+        delegate.endFile();
+      }
+    }
+
+    @Override
+    public void startTests() {
+      try {
+        out.write(TESTS_RECORD);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      delegate.startTests();
+    }
+
+    private void writeHits() throws IOException {
+      List<int[]> runs = new ArrayList<>();
+      int i = 0;
+      while (i < hitsLength) {
+        int start = hits[i];
+        int count = hits[i + 1];
+        int length = 1;
+        while (i + 2 * length < hitsLength && hits[i + 2 * length] == start + length && hits[i + 2 * length + 1] == count) {
+          length++;
+        }
+        runs.add(new int[] {start, length, count});
+        i += 2 * length;
+      }
+      writeVarInt(out, runs.size());
+      int previous = 0;
+      for (int[] run : runs) {
+        writeZigZag(out, run[0] - previous);
+        writeVarInt(out, run[1]);
+        writeVarInt(out, run[2]);
+        previous = run[0] + run[1] - 1;
+      }
+    }
+
+    /**
+     * Completes the entry, once the whole report has been read.
+     */
+    void commit() throws IOException {
+      out.write(END_RECORD);
+      out.close();
+    }
+
+    void abort() {
+      try {
+        out.close();
+      } catch (IOException e) {
+        LOG.debug("Unable to close Clover cache entry", e);
+      }
+    }
+  }
+
+  private class EntryRecorder extends Recorder {
+
+    private final String key;
+    private final Path temporary;
+
+    private EntryRecorder(String key, CloverReportHandler delegate) throws IOException {
+      this(key, delegate, Files.createTempFile(directory, key, TEMPORARY_SUFFIX));
+    }
+
+    private EntryRecorder(String key, CloverReportHandler delegate, Path temporary) throws IOException {
+      super(delegate, Files.newOutputStream(temporary));
+      this.key = key;
+      this.temporary = temporary;
+    }
+
+    /**
+     * Publishes the entry, once the whole report has been read.
+     */
+    @Override
+    void commit() throws IOException {
+      super.commit();
+      withLock(() -> {
+        Files.move(temporary, directory.resolve(key + ENTRY_SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evict();
+        return null;
+      });
+    }
+
+    @Override
+    void abort() {
+      super.abort();
+      try {
+        Files.deleteIfExists(temporary);
+      } catch (IOException e) {
+        LOG.debug("Unable to delete " + temporary, e);
+      }
+    }
+  }
+}
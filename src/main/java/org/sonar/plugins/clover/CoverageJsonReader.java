@@ -0,0 +1,672 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the coverage of a Clover report in the JSON format of this plugin, in a single pass over the stream of the
+ * report. This format is not written by Clover nor OpenClover, whose JSON output is a set of files per class for their
+ * HTML report: it is the XML report transcribed as is, for the tools which convert or merge reports, and holds the same
+ * sections as the XML one, nested in objects and arrays:
+ * <pre>
+ * {"project": {"packages": [{"files": [{"path": "...", "metrics": {"elements": 12, ...},
+ *   "lines": [{"num": 4, "count": 2}, {"num": 4, "truecount": 1, "falsecount": 1}]}]}]},
+ *  "testproject": {...}}
+ * </pre>
+ * Other members are skipped, whatever their value. The members of the files may come in any order: until the
+ * {@code path} and the {@code metrics} of a file are known, the data of the file is kept aside, and once the handler
+ * rejected the file the rest of it is skipped, as well as the rest of a package once its {@code name} was rejected.
+ * Keys and numbers are decoded from the bytes of the report, without creating any String.
+ */
+class CoverageJsonReader {
+
+  private static final int EOF = -1;
+  private static final long BLANK = -1;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private static final byte[] PROJECT = ascii("project");
+  private static final byte[] TEST_PROJECT = ascii("testproject");
+  private static final byte[] PACKAGES = ascii("packages");
+  private static final byte[] FILES = ascii("files");
+  private static final byte[] NAME = ascii("name");
+  private static final byte[] PATH = ascii("path");
+  private static final byte[] METRICS = ascii("metrics");
+  private static final byte[] LINES = ascii("lines");
+  private static final byte[] NUM = ascii("num");
+  private static final byte[] COUNT = ascii("count");
+  private static final byte[] TRUE_COUNT = ascii("truecount");
+  private static final byte[] FALSE_COUNT = ascii("falsecount");
+  private static final byte[] ELEMENTS = ascii("elements");
+  private static final byte[] STATEMENTS = ascii("statements");
+  private static final byte[] COVERED_STATEMENTS = ascii("coveredstatements");
+  private static final byte[] CONDITIONALS = ascii("conditionals");
+  private static final byte[] COVERED_CONDITIONALS = ascii("coveredconditionals");
+
+  private static final int METRICS_EVENT = 0;
+  private static final int TOTALS_EVENT = 1;
+  private static final int HITS_EVENT = 2;
+  private static final int CONDITIONS_EVENT = 3;
+  private static final int EVENT_SIZE = 5;
+
+  private final CloverReportHandler handler;
+  private final ReadOptions options;
+
+  private InputStream input;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int pos;
+  private int limit;
+  private long bufferStart;
+
+  private byte[] text = new byte[256];
+  private int textLength;
+
+  // the file being read, its data is kept aside until its path and its metrics are known
+  private boolean fileStarted;
+  private boolean fileAccepted;
+  private boolean metricsRead;
+  private int[] events = new int[256];
+  private int eventsLength;
+  private ImportEvents.PackageRead packageEvent;
+
+  CoverageJsonReader(CloverReportHandler handler) {
+    this(handler, ReadOptions.DEFAULT);
+  }
+
+  CoverageJsonReader(CloverReportHandler handler, ReadOptions options) {
+    this.handler = handler;
+    this.options = options;
+  }
+
+  void read(File report) throws IOException {
+    try (InputStream in = ReportStreams.open(report)) {
+      input = in;
+      skipByteOrderMark();
+      readReport();
+    } finally {
+      input = null;
+    }
+  }
+
+  private void readReport() throws IOException {
+    boolean projectRead = false;
+    boolean more = openObject();
+    while (more) {
+      readKey();
+      if (is(PROJECT) && !projectRead) {
+        readSection();
+        projectRead = true;
+        if (!options.tests()) {
+          return;
+        }
+      } else if (is(TEST_PROJECT) && projectRead) {
+        handler.startTests();
+        readSection();
+        return;
+      } else {
+        skipValue();
+      }
+      more = nextMember();
+    }
+    if (!projectRead) {
+      throw new IOException("No project found in Clover JSON report");
+    }
+  }
+
+  private void readSection() throws IOException {
+    boolean more = openObject();
+    while (more) {
+      readKey();
+      if (is(PACKAGES)) {
+        boolean morePackages = openArray();
+        while (morePackages) {
+          readPackage();
+          morePackages = nextElement();
+        }
+      } else {
+        skipValue();
+      }
+      more = nextMember();
+    }
+  }
+
+  private void readPackage() throws IOException {
+    if (ImportEvents.isPackageReadEnabled()) {
+      packageEvent = new ImportEvents.PackageRead();
+      packageEvent.begin();
+    }
+    long start = offset();
+    boolean skipped = false;
+    boolean more = openObject();
+    while (more) {
+      readKey();
+      if (skipped) {
+        skipValue();
+      } else if (is(NAME)) {
+        String name = readStringValue();
+        skipped = name != null && !handler.acceptsPackage(name);
+        if (packageEvent != null) {
+          packageEvent.name = name;
+          packageEvent.skipped = skipped;
+        }
+      } else if (is(FILES)) {
+        boolean moreFiles = openArray();
+        while (moreFiles) {
+          readFile();
+          moreFiles = nextElement();
+        }
+      } else {
+        skipValue();
+      }
+      more = nextMember();
+    }
+    if (packageEvent != null && packageEvent.shouldCommit()) {
+      packageEvent.bytes = offset() - start;
+      packageEvent.commit();
+    }
+    packageEvent = null;
+  }
+
+  private void readFile() throws IOException {
+    if (packageEvent != null) {
+      packageEvent.files++;
+    }
+    fileStarted = false;
+    fileAccepted = false;
+    metricsRead = false;
+    eventsLength = 0;
+    String path = null;
+    boolean more = openObject();
+    while (more) {
+      readKey();
+      if (fileStarted && !fileAccepted) {
+        skipValue();
+      } else if (is(PATH)) {
+        path = readStringValue();
+        if (path != null && !fileStarted) {
+          fileStarted = true;
+          fileAccepted = handler.startFile(path);
+          if (metricsRead) {
+            passEvents();
+          }
+        }
+      } else if (is(METRICS)) {
+        readMetrics();
+      } else if (is(LINES) && !options.fileMetricsOnly()) {
+        readLines();
+      } else {
+        skipValue();
+      }
+      more = nextMember();
+    }
+    // files without a path are ignored
+    if (fileAccepted) {
+      passEvents();
+      handler.endFile();
+    }
+  }
+
+  private void readMetrics() throws IOException {
+    long elements = BLANK;
+    long statements = BLANK;
+    long coveredStatements = BLANK;
+    long conditionals = BLANK;
+    long coveredConditionals = BLANK;
+    boolean more = openObject();
+    while (more) {
+      readKey();
+      if (is(ELEMENTS)) {
+        elements = readNumberValue();
+      } else if (is(STATEMENTS)) {
+        statements = readNumberValue();
+      } else if (is(COVERED_STATEMENTS)) {
+        coveredStatements = readNumberValue();
+      } else if (is(CONDITIONALS)) {
+        conditionals = readNumberValue();
+      } else if (is(COVERED_CONDITIONALS)) {
+        coveredConditionals = readNumberValue();
+      } else {
+        skipValue();
+      }
+      more = nextMember();
+    }
+    metricsRead = true;
+    event(METRICS_EVENT, elements > 0 ? 1 : 0, 0, 0, 0);
+    if (options.fileMetricsOnly()) {
+      event(TOTALS_EVENT, count(statements), count(coveredStatements), count(conditionals), count(coveredConditionals));
+    }
+    if (fileAccepted) {
+      // the lines read before the metrics
+      passEvents();
+    }
+  }
+
+  private void readLines() throws IOException {
+    boolean moreLines = openArray();
+    while (moreLines) {
+      long num = BLANK;
+      long count = BLANK;
+      long trueCount = BLANK;
+      long falseCount = BLANK;
+      boolean more = openObject();
+      while (more) {
+        readKey();
+        if (is(NUM)) {
+          num = readNumberValue();
+        } else if (is(COUNT)) {
+          count = readNumberValue();
+        } else if (is(TRUE_COUNT)) {
+          trueCount = readNumberValue();
+        } else if (is(FALSE_COUNT)) {
+          falseCount = readNumberValue();
+        } else {
+          skipValue();
+        }
+        more = nextMember();
+      }
+      if (num == BLANK || num > Integer.MAX_VALUE) {
+        throw new NumberFormatException("Invalid line number in Clover JSON report at offset " + offset());
+      }
+      if (packageEvent != null) {
+        packageEvent.lines++;
+      }
+      if (count != BLANK) {
+        event(HITS_EVENT, (int) num, count(count), 0, 0);
+      } else {
+        event(CONDITIONS_EVENT, (int) num, count(trueCount), count(falseCount), 0);
+      }
+      moreLines = nextElement();
+    }
+  }
+
+  private static int count(long value) {
+    return FileCoverage.saturatedInt(Math.max(0, value));
+  }
+
+  /**
+   * Passes the data to the handler, or keeps it until the path and the metrics of the file are known.
+   */
+  private void event(int type, int a, int b, int c, int d) {
+    if (fileStarted && !fileAccepted) {
+      return;
+    } else if (fileStarted && (metricsRead || type == METRICS_EVENT || type == TOTALS_EVENT)) {
+      pass(type, a, b, c, d);
+      return;
+    }
+    if (eventsLength + EVENT_SIZE > events.length) {
+      events = Arrays.copyOf(events, events.length * 2);
+    }
+    events[eventsLength++] = type;
+    events[eventsLength++] = a;
+    events[eventsLength++] = b;
+    events[eventsLength++] = c;
+    events[eventsLength++] = d;
+  }
+
+  /**
+   * Passes the data kept aside to the handler, the metrics before the lines.
+   */
+  private void passEvents() {
+    for (int i = 0; i < eventsLength; i += EVENT_SIZE) {
+      if (events[i] == METRICS_EVENT || events[i] == TOTALS_EVENT) {
+        pass(events[i], events[i + 1], events[i + 2], events[i + 3], events[i + 4]);
+      }
+    }
+    for (int i = 0; i < eventsLength; i += EVENT_SIZE) {
+      if (events[i] == HITS_EVENT || events[i] == CONDITIONS_EVENT) {
+        pass(events[i], events[i + 1], events[i + 2], events[i + 3], events[i + 4]);
+      }
+    }
+    eventsLength = 0;
+  }
+
+  private void pass(int type, int a, int b, int c, int d) {
+    switch (type) {
+      case METRICS_EVENT:
+        handler.fileMetrics(a == 1);
+        break;
+      case TOTALS_EVENT:
+        handler.fileTotals(a, b, c, d);
+        break;
+      case HITS_EVENT:
+        handler.lineHits(a, b);
+        break;
+      default:
+        handler.conditions(a, b, c);
+        break;
+    }
+  }
+
+  /**
+   * Reads the opening brace of an object.
+   *
+   * @return false if the object is empty
+   */
+  private boolean openObject() throws IOException {
+    expect('{');
+    return !closes('}');
+  }
+
+  /**
+   * @return false once the closing brace of the object is read
+   */
+  private boolean nextMember() throws IOException {
+    int c = nextToken();
+    if (c == ',') {
+      return true;
+    } else if (c != '}') {
+      throw malformed();
+    }
+    return false;
+  }
+
+  private boolean openArray() throws IOException {
+    expect('[');
+    return !closes(']');
+  }
+
+  private boolean nextElement() throws IOException {
+    int c = nextToken();
+    if (c == ',') {
+      return true;
+    } else if (c != ']') {
+      throw malformed();
+    }
+    return false;
+  }
+
+  private void readKey() throws IOException {
+    expect('"');
+    readString();
+    expect(':');
+  }
+
+  /**
+   * @return the string, or null if the value is null
+   */
+  private String readStringValue() throws IOException {
+    int c = nextToken();
+    if (c == 'n') {
+      readLiteral(c);
+      return null;
+    } else if (c != '"') {
+      throw malformed();
+    }
+    readString();
+    return new String(text, 0, textLength, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the number, saturated to the largest long, or {@link #BLANK} if the value is null or an empty string
+   */
+  private long readNumberValue() throws IOException {
+    int c = nextToken();
+    if (c == '"') {
+      // some tools write numbers as strings
+      readString();
+      return parseNumber(text, textLength);
+    } else if (c == 'n') {
+      readLiteral(c);
+      return BLANK;
+    }
+    textLength = 0;
+    while (c != EOF && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+      append(c);
+      c = read();
+    }
+    unread(c);
+    return parseNumber(text, textLength);
+  }
+
+  private long parseNumber(byte[] digits, int length) {
+    long number = 0;
+    int first = 0;
+    int last = length;
+    while (first < last && isWhitespace(digits[first])) {
+      first++;
+    }
+    while (last > first && isWhitespace(digits[last - 1])) {
+      last--;
+    }
+    if (first == last) {
+      return BLANK;
+    }
+    for (int i = first; i < last; i++) {
+      int c = digits[i];
+      if (c < '0' || c > '9') {
+        throw new NumberFormatException("Invalid number in Clover JSON report at offset " + offset());
+      }
+      // counts of long running tests may not fit in a long either, they saturate
+      number = number > (Long.MAX_VALUE - 9) / 10 ? Long.MAX_VALUE : number * 10 + (c - '0');
+    }
+    return number;
+  }
+
+  private void skipValue() throws IOException {
+    int c = nextToken();
+    if (c == '{') {
+      unread(c);
+      boolean more = openObject();
+      while (more) {
+        readKey();
+        skipValue();
+        more = nextMember();
+      }
+    } else if (c == '[') {
+      unread(c);
+      boolean more = openArray();
+      while (more) {
+        skipValue();
+        more = nextElement();
+      }
+    } else if (c == '"') {
+      readString();
+    } else {
+      readLiteral(c);
+    }
+  }
+
+  /**
+   * Reads a number, true, false or null, which ends with the next delimiter.
+   */
+  private void readLiteral(int first) throws IOException {
+    int c = first;
+    if (c == EOF || c == ',' || c == '}' || c == ']' || c == ':') {
+      throw malformed();
+    }
+    while (c != EOF && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+      c = read();
+    }
+    unread(c);
+  }
+
+  /**
+   * Reads the content of a string, once its opening quote was read, into {@link #text}.
+   */
+  private void readString() throws IOException {
+    textLength = 0;
+    int c;
+    while ((c = read()) != '"') {
+      if (c == EOF) {
+        throw unexpectedEnd();
+      } else if (c == '\\') {
+        readEscape();
+      } else {
+        append(c);
+      }
+    }
+  }
+
+  private void readEscape() throws IOException {
+    int c = read();
+    switch (c) {
+      case 'b':
+        append('\b');
+        break;
+      case 'f':
+        append('\f');
+        break;
+      case 'n':
+        append('\n');
+        break;
+      case 'r':
+        append('\r');
+        break;
+      case 't':
+        append('\t');
+        break;
+      case 'u':
+        appendCodePoint(readUnicodeEscape());
+        break;
+      case EOF:
+        throw unexpectedEnd();
+      default:
+        // quotes, backslashes and slashes
+        append(c);
+        break;
+    }
+  }
+
+  private int readUnicodeEscape() throws IOException {
+    char high = readHexChar();
+    if (!Character.isHighSurrogate(high)) {
+      return high;
+    }
+    if (read() != '\\' || read() != 'u') {
+      throw malformed();
+    }
+    char low = readHexChar();
+    if (!Character.isLowSurrogate(low)) {
+      throw malformed();
+    }
+    return Character.toCodePoint(high, low);
+  }
+
+  private char readHexChar() throws IOException {
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      int digit = Character.digit(read(), 16);
+      if (digit < 0) {
+        throw malformed();
+      }
+      value = (value << 4) | digit;
+    }
+    return (char) value;
+  }
+
+  private void appendCodePoint(int codePoint) {
+    for (byte b : new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8)) {
+      append(b);
+    }
+  }
+
+  private void append(int c) {
+    if (textLength == text.length) {
+      text = Arrays.copyOf(text, textLength * 2);
+    }
+    text[textLength++] = (byte) c;
+  }
+
+  private boolean is(byte[] expected) {
+    return Arrays.equals(text, 0, textLength, expected, 0, expected.length);
+  }
+
+  private void expect(int expected) throws IOException {
+    int c = nextToken();
+    if (c != expected) {
+      throw c == EOF ? unexpectedEnd() : malformed();
+    }
+  }
+
+  /**
+   * @return true if the next token is the given character, which is then read
+   */
+  private boolean closes(int expected) throws IOException {
+    int c = nextToken();
+    if (c != expected) {
+      unread(c);
+      return false;
+    }
+    return true;
+  }
+
+  private int nextToken() throws IOException {
+    int c;
+    do {
+      c = read();
+    } while (isWhitespace(c));
+    return c;
+  }
+
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+  }
+
+  private void skipByteOrderMark() throws IOException {
+    if (fill() && limit >= 3 && buffer[0] == (byte) 0xef && buffer[1] == (byte) 0xbb && buffer[2] == (byte) 0xbf) {
+      pos = 3;
+    }
+  }
+
+  private int read() throws IOException {
+    if (pos == limit && !fill()) {
+      return EOF;
+    }
+    return buffer[pos++] & 0xFF;
+  }
+
+  /**
+   * Gives back the last character read, which is still in the buffer.
+   */
+  private void unread(int c) {
+    if (c != EOF) {
+      pos--;
+    }
+  }
+
+  private boolean fill() throws IOException {
+    bufferStart += limit;
+    pos = 0;
+    limit = 0;
+    int length = input.readNBytes(buffer, 0, buffer.length);
+    limit = length;
+    return length > 0;
+  }
+
+  private long offset() {
+    return bufferStart + pos;
+  }
+
+  private IOException malformed() {
+    return new IOException("Malformed Clover JSON report at offset " + offset());
+  }
+
+  private static IOException unexpectedEnd() {
+    return new IOException("Unexpected end of Clover JSON report");
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+}
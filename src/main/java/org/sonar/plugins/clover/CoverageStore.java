@@ -0,0 +1,251 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the coverage of the files of several reports until all of them are read, outside of the heap. The coverage is
+ * written to a direct buffer, and once the buffer holds more than the memory budget, its records are sorted by file and
+ * spilled to a temporary file, which is then mapped in memory. The runs are eventually merged, so that the coverage of
+ * each file is summed and passed on in the order in which the files were first added.
+ */
+class CoverageStore implements Closeable {
+
+  static final long DEFAULT_MEMORY_BUDGET_MB = 64;
+  private static final Logger LOG = Loggers.get(CoverageStore.class);
+  private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+  private final Supplier<Path> directory;
+  private final int memoryBudget;
+  // files are numbered in the order in which they are added
+  private final Map<InputFile, Integer> fileIndexes = new HashMap<>();
+  private final List<InputFile> files = new ArrayList<>();
+  private final List<Run> spilledRuns = new ArrayList<>();
+  private final List<Path> spillFiles = new ArrayList<>();
+  private ByteBuffer buffer;
+  // file index in the high bits, and rank in the run in the low bits, so that records of a file keep their order once sorted
+  private long[] records = new long[256];
+  private int[] offsets = new int[256];
+  private int size;
+
+  /**
+   * @param directory where runs are spilled, only resolved once a run is spilled
+   * @param memoryBudget bytes of the records kept in memory before they are spilled
+   */
+  CoverageStore(Supplier<Path> directory, long memoryBudget) {
+    this.directory = directory;
+    this.memoryBudget = (int) Math.min(Integer.MAX_VALUE, Math.max(0, memoryBudget));
+  }
+
+  void add(InputFile inputFile, FileCoverage coverage) throws IOException {
+    Integer fileIndex = fileIndexes.get(inputFile);
+    if (fileIndex == null) {
+      fileIndex = files.size();
+      fileIndexes.put(inputFile, fileIndex);
+      files.add(inputFile);
+    }
+    int recordSize = Integer.BYTES + coverage.encodedSize();
+    if (buffer != null && size > 0 && buffer.position() + recordSize > memoryBudget) {
+      spill();
+    }
+    ensureCapacity(recordSize);
+    if (size == records.length) {
+      records = Arrays.copyOf(records, size * 2);
+      offsets = Arrays.copyOf(offsets, size * 2);
+    }
+    records[size] = ((long) fileIndex << 32) | size;
+    offsets[size++] = buffer.position();
+    buffer.putInt(fileIndex);
+    coverage.writeTo(buffer);
+  }
+
+  int spilledRuns() {
+    return spilledRuns.size();
+  }
+
+  /**
+   * Passes the sum of the coverage of each file to the given consumer, in the order in which the files were first
+   * added.
+   */
+  void forEachMerged(BiConsumer<InputFile, FileCoverage> consumer) {
+    PriorityQueue<Run> runs = new PriorityQueue<>((a, b) -> a.fileIndex != b.fileIndex ? Integer.compare(a.fileIndex, b.fileIndex)
+      : Integer.compare(a.order, b.order));
+    for (Run run : spilledRuns) {
+      run.rewind();
+      addIfNotEmpty(runs, run);
+    }
+    if (size > 0) {
+      addIfNotEmpty(runs, new Run(buffer.duplicate(), sortedOffsets(), spilledRuns.size()));
+    }
+    while (!runs.isEmpty()) {
+      int fileIndex = runs.peek().fileIndex;
+      FileCoverage merged = null;
+      while (!runs.isEmpty() && runs.peek().fileIndex == fileIndex) {
+        Run run = runs.poll();
+        FileCoverage coverage = run.read();
+        merged = merged == null ? coverage : merged.merge(coverage);
+        addIfNotEmpty(runs, run);
+      }
+      consumer.accept(files.get(fileIndex), merged);
+    }
+  }
+
+  private static void addIfNotEmpty(PriorityQueue<Run> runs, Run run) {
+    if (run.hasNext()) {
+      runs.add(run);
+    }
+  }
+
+  private void ensureCapacity(int recordSize) {
+    int required = (buffer == null ? 0 : buffer.position()) + recordSize;
+    if (buffer != null && required <= buffer.capacity()) {
+      return;
+    }
+    // the buffer grows up to the budget, or to the size of a single record beyond the budget
+    int capacity = Math.max(required, (int) Math.min(memoryBudget, Math.max(MIN_BUFFER_SIZE, buffer == null ? 0 : buffer.capacity() * 2L)));
+    ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+    if (buffer != null) {
+      buffer.flip();
+      grown.put(buffer);
+    }
+    buffer = grown;
+  }
+
+  /**
+   * Writes the records in memory to a temporary file, sorted by file, and maps the file in their place.
+   */
+  private void spill() throws IOException {
+    int[] sorted = sortedOffsets();
+    int end = buffer.position();
+    Path spillFile = Files.createTempFile(directory.get(), "clover-coverage-", ".run");
+    spillFiles.add(spillFile);
+    int[] spilledOffsets = new int[size];
+    try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long position = 0;
+      for (int i = 0; i < size; i++) {
+        int offset = sorted[i];
+        ByteBuffer record = buffer.duplicate();
+        record.limit(recordEnd(offset, end)).position(offset);
+        spilledOffsets[i] = (int) position;
+        while (record.hasRemaining()) {
+          position += channel.write(record, position);
+        }
+      }
+      spilledRuns.add(new Run(channel.map(FileChannel.MapMode.READ_ONLY, 0, position), spilledOffsets, spilledRuns.size()));
+    }
+    LOG.debug("Coverage of {} files spilled to {}", size, spillFile);
+    buffer.clear();
+    size = 0;
+  }
+
+  /**
+   * @return the end of the record at the given offset, the records being written one after the other
+   */
+  private int recordEnd(int offset, int end) {
+    // records are ranked in the order of their offsets
+    int next = Arrays.binarySearch(offsets, 0, size, offset) + 1;
+    return next < size ? offsets[next] : end;
+  }
+
+  private int[] sortedOffsets() {
+    long[] sortedRecords = Arrays.copyOf(records, size);
+    Arrays.sort(sortedRecords);
+    int[] sorted = new int[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = offsets[(int) sortedRecords[i]];
+    }
+    return sorted;
+  }
+
+  @Override
+  public void close() throws IOException {
+    spilledRuns.clear();
+    buffer = null;
+    for (Path spillFile : spillFiles) {
+      try {
+        Files.deleteIfExists(spillFile);
+      } catch (IOException e) {
+        // the file may still be mapped on some platforms
+        LOG.debug("Unable to delete " + spillFile, e);
+        spillFile.toFile().deleteOnExit();
+      }
+    }
+    spillFiles.clear();
+  }
+
+  /**
+   * The records of a run, read in the order of their files.
+   */
+  private static final class Run {
+
+    private final ByteBuffer data;
+    private final int[] offsets;
+    // of the run, to keep the order of the reports when the records of a file are merged
+    private final int order;
+    private int next;
+    private int fileIndex;
+
+    Run(ByteBuffer data, int[] offsets, int order) {
+      this.data = data;
+      this.offsets = offsets;
+      this.order = order;
+      rewind();
+    }
+
+    void rewind() {
+      next = 0;
+      if (hasNext()) {
+        fileIndex = data.getInt(offsets[0]);
+      }
+    }
+
+    boolean hasNext() {
+      return next < offsets.length;
+    }
+
+    FileCoverage read() {
+      data.position(offsets[next++] + Integer.BYTES);
+      FileCoverage coverage = FileCoverage.readFrom(data);
+      if (hasNext()) {
+        fileIndex = data.getInt(offsets[next]);
+      }
+      return coverage;
+    }
+  }
+}
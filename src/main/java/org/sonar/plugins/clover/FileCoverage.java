@@ -0,0 +1,284 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.coverage.NewCoverage;
+import org.sonar.api.measures.CoreMetrics;
+import org.sonar.api.measures.Metric;
+
+import javax.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Coverage data of a single source file, as read from one or several Clover reports. Lines are sorted and hold the
+ * sum of their hits. Each {@code cond} element of a line is kept with its true and false counts, in the order of the
+ * report, so that the same condition read from several reports is merged rather than counted twice.
+ * <p>
+ * When only the metrics of the files are read, the coverage is made of the totals of statements and conditionals of
+ * the file instead of its lines.
+ */
+class FileCoverage {
+
+  private final boolean hasElements;
+  private final int[] lines;
+  private final int[] hits;
+  private final int[] conditionLines;
+  private final int[] trueCounts;
+  private final int[] falseCounts;
+  // statements, covered statements, conditionals and covered conditionals
+  @Nullable
+  private final int[] totals;
+
+  FileCoverage(boolean hasElements, int[] lines, int[] hits, int[] conditionLines, int[] trueCounts, int[] falseCounts) {
+    this(hasElements, lines, hits, conditionLines, trueCounts, falseCounts, null);
+  }
+
+  private FileCoverage(boolean hasElements, int[] lines, int[] hits, int[] conditionLines, int[] trueCounts, int[] falseCounts,
+    @Nullable int[] totals) {
+    this.hasElements = hasElements;
+    this.lines = lines;
+    this.hits = hits;
+    this.conditionLines = conditionLines;
+    this.trueCounts = trueCounts;
+    this.falseCounts = falseCounts;
+    this.totals = totals;
+  }
+
+  static FileCoverage ofTotals(boolean hasElements, int statements, int coveredStatements, int conditionals, int coveredConditionals) {
+    int[] none = new int[0];
+    return new FileCoverage(hasElements, none, none, none, none, none,
+      new int[] {statements, Math.min(statements, coveredStatements), conditionals, Math.min(conditionals, coveredConditionals)});
+  }
+
+  boolean hasTotals() {
+    return totals != null;
+  }
+
+  boolean hasElements() {
+    return hasElements;
+  }
+
+  int lineCount() {
+    return lines.length;
+  }
+
+  int conditionCount() {
+    return conditionLines.length;
+  }
+
+  /**
+   * @return the number of bytes written by {@link #writeTo(ByteBuffer)}
+   */
+  int encodedSize() {
+    return 1 + (totals == null ? 0 : 4 * Integer.BYTES) + Integer.BYTES + lines.length * 2 * Integer.BYTES
+      + Integer.BYTES + conditionLines.length * 3 * Integer.BYTES;
+  }
+
+  void writeTo(ByteBuffer buffer) {
+    buffer.put((byte) ((hasElements ? 1 : 0) | (totals == null ? 0 : 2)));
+    if (totals != null) {
+      for (int total : totals) {
+        buffer.putInt(total);
+      }
+    }
+    buffer.putInt(lines.length);
+    for (int i = 0; i < lines.length; i++) {
+      buffer.putInt(lines[i]);
+      buffer.putInt(hits[i]);
+    }
+    buffer.putInt(conditionLines.length);
+    for (int i = 0; i < conditionLines.length; i++) {
+      buffer.putInt(conditionLines[i]);
+      buffer.putInt(trueCounts[i]);
+      buffer.putInt(falseCounts[i]);
+    }
+  }
+
+  /**
+   * @return the coverage written by {@link #writeTo(ByteBuffer)} at the position of the given buffer
+   */
+  static FileCoverage readFrom(ByteBuffer buffer) {
+    byte flags = buffer.get();
+    int[] totals = null;
+    if ((flags & 2) != 0) {
+      totals = new int[] {buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt()};
+    }
+    int[] lines = new int[buffer.getInt()];
+    int[] hits = new int[lines.length];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = buffer.getInt();
+      hits[i] = buffer.getInt();
+    }
+    int[] conditionLines = new int[buffer.getInt()];
+    int[] trueCounts = new int[conditionLines.length];
+    int[] falseCounts = new int[conditionLines.length];
+    for (int i = 0; i < conditionLines.length; i++) {
+      conditionLines[i] = buffer.getInt();
+      trueCounts[i] = buffer.getInt();
+      falseCounts[i] = buffer.getInt();
+    }
+    return new FileCoverage((flags & 1) != 0, lines, hits, conditionLines, trueCounts, falseCounts, totals);
+  }
+
+  /**
+   * @return the sum of this coverage and the coverage of the same file in another report
+   */
+  FileCoverage merge(FileCoverage other) {
+    if (totals != null && other.totals != null) {
+      // the statements covered by each report may be the same ones, so that the coverage is not overstated
+      return ofTotals(hasElements || other.hasElements, Math.max(totals[0], other.totals[0]), Math.max(totals[1], other.totals[1]),
+        Math.max(totals[2], other.totals[2]), Math.max(totals[3], other.totals[3]));
+    }
+    int[] mergedLines = new int[lines.length + other.lines.length];
+    int[] mergedHits = new int[mergedLines.length];
+    int i = 0;
+    int j = 0;
+    int size = 0;
+    while (i < lines.length || j < other.lines.length) {
+      if (j == other.lines.length || (i < lines.length && lines[i] < other.lines[j])) {
+        mergedLines[size] = lines[i];
+        mergedHits[size++] = hits[i++];
+      } else if (i == lines.length || other.lines[j] < lines[i]) {
+        mergedLines[size] = other.lines[j];
+        mergedHits[size++] = other.hits[j++];
+      } else {
+        mergedLines[size] = lines[i];
+        mergedHits[size++] = saturatedAdd(hits[i++], other.hits[j++]);
+      }
+    }
+
+    int[] mergedConditionLines = new int[conditionLines.length + other.conditionLines.length];
+    int[] mergedTrueCounts = new int[mergedConditionLines.length];
+    int[] mergedFalseCounts = new int[mergedConditionLines.length];
+    int conditions = 0;
+    i = 0;
+    j = 0;
+    while (i < conditionLines.length || j < other.conditionLines.length) {
+      int line = nextLine(conditionLines, i, other.conditionLines, j);
+      // conditions of the same line are matched by their rank in the line
+      while (i < conditionLines.length && conditionLines[i] == line && j < other.conditionLines.length && other.conditionLines[j] == line) {
+        mergedConditionLines[conditions] = line;
+        mergedTrueCounts[conditions] = saturatedAdd(trueCounts[i], other.trueCounts[j]);
+        mergedFalseCounts[conditions++] = saturatedAdd(falseCounts[i++], other.falseCounts[j++]);
+      }
+      while (i < conditionLines.length && conditionLines[i] == line) {
+        mergedConditionLines[conditions] = line;
+        mergedTrueCounts[conditions] = trueCounts[i];
+        mergedFalseCounts[conditions++] = falseCounts[i++];
+      }
+      while (j < other.conditionLines.length && other.conditionLines[j] == line) {
+        mergedConditionLines[conditions] = line;
+        mergedTrueCounts[conditions] = other.trueCounts[j];
+        mergedFalseCounts[conditions++] = other.falseCounts[j++];
+      }
+    }
+
+    return new FileCoverage(hasElements || other.hasElements,
+      trim(mergedLines, size), trim(mergedHits, size),
+      trim(mergedConditionLines, conditions), trim(mergedTrueCounts, conditions), trim(mergedFalseCounts, conditions));
+  }
+
+  /**
+   * Pushes the hits and the conditions of each line to the given coverage, in a single pass over the sorted lines.
+   */
+  void save(NewCoverage coverage) {
+    int c = 0;
+    for (int i = 0; i < lines.length; i++) {
+      c = saveConditionsBefore(coverage, c, lines[i] + 1);
+      coverage.lineHits(lines[i], hits[i]);
+    }
+    saveConditionsBefore(coverage, c, Integer.MAX_VALUE);
+    coverage.save();
+  }
+
+  /**
+   * Saves the totals of the file as the measures which are otherwise computed from its lines. Only supported before
+   * {@link CloverXmlReportParser#FILE_METRICS_MAX_VERSION}, the totals are never read on later versions.
+   */
+  void saveTotals(SensorContext context, InputFile inputFile) {
+    if (totals == null) {
+      return;
+    }
+    saveMeasure(context, inputFile, CoreMetrics.LINES_TO_COVER, totals[0]);
+    saveMeasure(context, inputFile, CoreMetrics.UNCOVERED_LINES, totals[0] - totals[1]);
+    if (totals[2] > 0) {
+      saveMeasure(context, inputFile, CoreMetrics.CONDITIONS_TO_COVER, totals[2]);
+      saveMeasure(context, inputFile, CoreMetrics.UNCOVERED_CONDITIONS, totals[2] - totals[3]);
+    }
+  }
+
+  private static void saveMeasure(SensorContext context, InputFile inputFile, Metric<Integer> metric, int value) {
+    context.<Integer>newMeasure().on(inputFile).forMetric(metric).withValue(value).save();
+  }
+
+  private int saveConditionsBefore(NewCoverage coverage, int first, int lineLimit) {
+    int c = first;
+    while (c < conditionLines.length && conditionLines[c] < lineLimit) {
+      int line = conditionLines[c];
+      int conditions = 0;
+      int coveredConditions = 0;
+      while (c < conditionLines.length && conditionLines[c] == line) {
+        conditions += 2;
+        if (trueCounts[c] > 0) {
+          coveredConditions++;
+        }
+        if (falseCounts[c] > 0) {
+          coveredConditions++;
+        }
+        c++;
+      }
+      coverage.conditions(line, conditions, coveredConditions);
+    }
+    return c;
+  }
+
+  private static int nextLine(int[] lines, int i, int[] otherLines, int j) {
+    if (i == lines.length) {
+      return otherLines[j];
+    } else if (j == otherLines.length) {
+      return lines[i];
+    }
+    return Math.min(lines[i], otherLines[j]);
+  }
+
+  static int saturatedAdd(int a, int b) {
+    long sum = (long) a + b;
+    return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+  }
+
+  /**
+   * @return the given count, or the largest int if it does not fit in one
+   */
+  static int saturatedInt(long count) {
+    return count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count;
+  }
+
+  private static int[] trim(int[] array, int size) {
+    if (array.length == size) {
+      return array;
+    }
+    int[] result = new int[size];
+    System.arraycopy(array, 0, result, 0, size);
+    return result;
+  }
+}
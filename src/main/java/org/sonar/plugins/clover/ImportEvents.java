@@ -0,0 +1,158 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events of the import of the Clover reports. The events are timed and committed by the
+ * code which they measure, and cost next to nothing when they are not enabled in a recording.
+ */
+final class ImportEvents {
+
+  private static final String CATEGORY = "Clover";
+  private static final EventType PACKAGE_READ = EventType.getEventType(PackageRead.class);
+  private static final EventType PATH_RESOLUTION_MISS = EventType.getEventType(PathResolutionMiss.class);
+
+  private ImportEvents() {
+  }
+
+  /**
+   * @return true if a recording takes the reading of the packages, whose files and lines are then counted
+   */
+  static boolean isPackageReadEnabled() {
+    return PACKAGE_READ.isEnabled();
+  }
+
+  /**
+   * @return true if a recording takes the misses of the path resolution, which is done for every file of the reports
+   */
+  static boolean isPathResolutionMissEnabled() {
+    return PATH_RESOLUTION_MISS.isEnabled();
+  }
+
+  @Name("org.sonar.plugins.clover.SensorExecution")
+  @Label("Clover Sensor Execution")
+  @Description("Import of the coverage of the Clover reports of a module")
+  @Category({"SonarQube", CATEGORY})
+  @StackTrace(false)
+  static final class SensorExecution extends Event {
+
+    @Label("Reports")
+    int reports;
+
+    @Label("Report Bytes")
+    @DataAmount
+    long bytes;
+  }
+
+  @Name("org.sonar.plugins.clover.ReportParse")
+  @Label("Clover Report Parse")
+  @Description("Reading of a Clover report, or replay of its coverage from a cache")
+  @Category({"SonarQube", CATEGORY})
+  @StackTrace(false)
+  static final class ReportParse extends Event {
+
+    @Label("Report")
+    String report;
+
+    @Label("Parser")
+    @Description("None when the coverage was replayed from a cache")
+    String parser;
+
+    @Label("Bytes Read")
+    @Description("None when the coverage was replayed from a cache")
+    @DataAmount
+    long bytes;
+
+    @Label("Files")
+    int files;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Conditions")
+    long conditions;
+  }
+
+  @Name("org.sonar.plugins.clover.PackageRead")
+  @Label("Clover Package Read")
+  @Description("Reading of a package element of a Clover report")
+  @Category({"SonarQube", CATEGORY})
+  @StackTrace(false)
+  static final class PackageRead extends Event {
+
+    @Label("Package")
+    String name;
+
+    @Label("Bytes")
+    @Description("Size of the package element, in characters when read by the StAX parser")
+    @DataAmount
+    long bytes;
+
+    @Label("Files")
+    int files;
+
+    @Label("Lines")
+    @Description("Line elements of the files which were read")
+    long lines;
+
+    @Label("Skipped")
+    @Description("Whether the package is filtered out by the exclusions")
+    boolean skipped;
+  }
+
+  @Name("org.sonar.plugins.clover.PathResolutionMiss")
+  @Label("Clover Path Resolution Miss")
+  @Description("Look up of a path of a Clover report which matches no input file")
+  @Category({"SonarQube", CATEGORY})
+  @StackTrace(false)
+  static final class PathResolutionMiss extends Event {
+
+    @Label("Path")
+    String path;
+  }
+
+  @Name("org.sonar.plugins.clover.CoverageSave")
+  @Label("Clover Coverage Save")
+  @Description("Saving of the coverage of a batch of files")
+  @Category({"SonarQube", CATEGORY})
+  @StackTrace(false)
+  static final class CoverageSave extends Event {
+
+    static final int BATCH_SIZE = 256;
+
+    @Label("Files")
+    int files;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Conditions")
+    long conditions;
+  }
+}
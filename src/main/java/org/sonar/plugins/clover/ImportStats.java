@@ -0,0 +1,299 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers of the import of a set of Clover reports. They are updated by the threads of the reading
+ * pipeline, and summarized in a single log line and, on demand, in a JSON file of the working directory.
+ */
+class ImportStats {
+
+  static final String REPORT_FILE_NAME = "clover-import-stats.json";
+  private static final double MB = 1024.0 * 1024.0;
+
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong reports = new AtomicLong();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder files = new LongAdder();
+  private final LongAdder lines = new LongAdder();
+  private final LongAdder conditions = new LongAdder();
+  private final LongAdder unmatchedFiles = new LongAdder();
+  private final LongAdder unchangedFiles = new LongAdder();
+  private final LongAdder excludedFiles = new LongAdder();
+  private final LongAdder filteredFiles = new LongAdder();
+  private final LongAdder filteredPackages = new LongAdder();
+  private final LongAdder parseNanos = new LongAdder();
+  private final LatencyHistogram pathResolution = new LatencyHistogram();
+  private final LatencyHistogram saving = new LatencyHistogram();
+  private long wallNanos;
+  private int indexedPaths;
+  private long indexNanos;
+  private long normalizedLookups;
+
+  void addReport(long reportBytes, long nanos) {
+    reports.incrementAndGet();
+    bytes.add(reportBytes);
+    parseNanos.add(nanos);
+  }
+
+  void addFile(int fileLines, int fileConditions) {
+    files.increment();
+    lines.add(fileLines);
+    conditions.add(fileConditions);
+  }
+
+  void addUnmatchedFile() {
+    unmatchedFiles.increment();
+  }
+
+  void addUnchangedFile() {
+    unchangedFiles.increment();
+  }
+
+  void addExcludedFile() {
+    excludedFiles.increment();
+  }
+
+  /**
+   * Counts a file which is left out by the inclusions and exclusions, and which is not one of the files of the report.
+   */
+  void addFilteredFile() {
+    filteredFiles.increment();
+  }
+
+  void addFilteredPackage() {
+    filteredPackages.increment();
+  }
+
+  LatencyHistogram pathResolution() {
+    return pathResolution;
+  }
+
+  LatencyHistogram saving() {
+    return saving;
+  }
+
+  /**
+   * Stops the wall clock and takes the figures of the index of the input files.
+   */
+  void finish(InputFileProvider inputFileProvider) {
+    wallNanos = System.nanoTime() - startNanos;
+    indexedPaths = inputFileProvider.indexedPaths();
+    indexNanos = inputFileProvider.indexNanos();
+    normalizedLookups = inputFileProvider.normalizedLookups();
+  }
+
+  long bytes() {
+    return bytes.sum();
+  }
+
+  long files() {
+    return files.sum();
+  }
+
+  long matchedFiles() {
+    return files.sum() - unmatchedFiles.sum();
+  }
+
+  long unmatchedFiles() {
+    return unmatchedFiles.sum();
+  }
+
+  long excludedFiles() {
+    return excludedFiles.sum();
+  }
+
+  long filteredFiles() {
+    return filteredFiles.sum();
+  }
+
+  long filteredPackages() {
+    return filteredPackages.sum();
+  }
+
+  long lines() {
+    return lines.sum();
+  }
+
+  long conditions() {
+    return conditions.sum();
+  }
+
+  String summary() {
+    double seconds = wallNanos / 1e9;
+    return String.format(Locale.ENGLISH, "Clover coverage imported in %.3f s: %d reports, %.1f MB (%.1f MB/s), %d files (%.0f files/s), "
+      + "%d matched, %d unmatched, %d unchanged, %d excluded for coverage, %d lines, %d conditions%s",
+      seconds, reports.get(), bytes.sum() / MB, perSecond(bytes.sum() / MB), files.sum(), perSecond(files.sum()),
+      matchedFiles(), unmatchedFiles.sum(), unchangedFiles.sum(), excludedFiles.sum(), lines.sum(), conditions.sum(),
+      filteredFiles.sum() + filteredPackages.sum() == 0 ? ""
+        : String.format(Locale.ENGLISH, ", %d files and %d packages filtered out", filteredFiles.sum(), filteredPackages.sum()));
+  }
+
+  String phases() {
+    return String.format(Locale.ENGLISH, "Clover import phases: parsing %d ms, index of %d paths %d ms, path resolution %d ms (%s), saving %d ms (%s)",
+      millis(parseNanos.sum()), indexedPaths, millis(indexNanos), millis(pathResolution.totalNanos()), pathResolution.summary(),
+      millis(saving.totalNanos()), saving.summary());
+  }
+
+  void writeTo(File workDir) throws IOException {
+    Files.createDirectories(workDir.toPath());
+    File reportFile = new File(workDir, REPORT_FILE_NAME);
+    try (JsonWriter json = new JsonWriter(new OutputStreamWriter(Files.newOutputStream(reportFile.toPath()), StandardCharsets.UTF_8))) {
+      json.beginObject()
+        .name("reports").value(reports.get())
+        .name("bytes").value(bytes.sum())
+        .name("files").value(files.sum())
+        .name("matchedFiles").value(matchedFiles())
+        .name("unmatchedFiles").value(unmatchedFiles.sum())
+        .name("unchangedFiles").value(unchangedFiles.sum())
+        .name("excludedFiles").value(excludedFiles.sum())
+        .name("filteredFiles").value(filteredFiles.sum())
+        .name("filteredPackages").value(filteredPackages.sum())
+        .name("lines").value(lines.sum())
+        .name("conditions").value(conditions.sum())
+        .name("wallTimeMs").value(millis(wallNanos))
+        .name("megabytesPerSecond").value(perSecond(bytes.sum() / MB))
+        .name("filesPerSecond").value(perSecond(files.sum()))
+        .name("phases").beginObject()
+        .name("parsingMs").value(millis(parseNanos.sum()))
+        .name("indexMs").value(millis(indexNanos))
+        .name("pathResolutionMs").value(millis(pathResolution.totalNanos()))
+        .name("savingMs").value(millis(saving.totalNanos()))
+        .endObject()
+        .name("indexedPaths").value(indexedPaths)
+        .name("normalizedLookups").value(normalizedLookups);
+      json.name("pathResolution");
+      pathResolution.writeTo(json);
+      json.name("saving");
+      saving.writeTo(json);
+      json.endObject();
+    }
+  }
+
+  private double perSecond(double count) {
+    return wallNanos == 0 ? 0 : count * 1e9 / wallNanos;
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  /**
+   * Latencies counted in buckets of powers of two nanoseconds, so that recording one is a couple of atomic additions
+   * whatever the number of recorded latencies. Percentiles are the upper bounds of their buckets.
+   */
+  static class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+      long latency = Math.max(0, nanos);
+      counts.incrementAndGet(bucketOf(latency));
+      total.add(latency);
+      max.accumulateAndGet(latency, Math::max);
+    }
+
+    long count() {
+      long count = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        count += counts.get(i);
+      }
+      return count;
+    }
+
+    long totalNanos() {
+      return total.sum();
+    }
+
+    long maxNanos() {
+      return max.get();
+    }
+
+    /**
+     * @return the upper bound of the bucket of the given percentile, never more than the maximum latency
+     */
+    long percentileNanos(double percentile) {
+      long count = count();
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts.get(i);
+        if (seen >= rank) {
+          return Math.min(upperBoundOf(i), max.get());
+        }
+      }
+      return max.get();
+    }
+
+    String summary() {
+      return String.format(Locale.ENGLISH, "%d calls, p50 %d us, p99 %d us, max %d us", count(),
+        micros(percentileNanos(50)), micros(percentileNanos(99)), micros(max.get()));
+    }
+
+    void writeTo(JsonWriter json) throws IOException {
+      json.beginObject()
+        .name("count").value(count())
+        .name("totalNanos").value(total.sum())
+        .name("p50Nanos").value(percentileNanos(50))
+        .name("p90Nanos").value(percentileNanos(90))
+        .name("p99Nanos").value(percentileNanos(99))
+        .name("maxNanos").value(max.get())
+        .name("buckets").beginArray();
+      for (int i = 0; i < BUCKETS; i++) {
+        long bucketCount = counts.get(i);
+        if (bucketCount > 0) {
+          json.beginObject().name("upperBoundNanos").value(upperBoundOf(i)).name("count").value(bucketCount).endObject();
+        }
+      }
+      json.endArray().endObject();
+    }
+
+    private static int bucketOf(long nanos) {
+      // bucket i holds the latencies of i significant bits
+      return Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(nanos));
+    }
+
+    private static long upperBoundOf(int bucket) {
+      return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    private static long micros(long nanos) {
+      return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+  }
+}
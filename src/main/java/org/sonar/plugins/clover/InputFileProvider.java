@@ -22,21 +22,100 @@ package org.sonar.plugins.clover;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Resolves the paths found in Clover reports against the indexed files of the module. The index of the absolute and
+ * relative paths of all files is built once, on first lookup, and paths which match nothing are remembered so that
+ * they are not normalized again. The size and the build time of the index, and the number of paths which had to be
+ * normalized, are kept for the import statistics.
+ */
 public class InputFileProvider {
 
   private final FileSystem fs;
+  private final Set<String> misses = ConcurrentHashMap.newKeySet();
+  private volatile Map<String, InputFile> index;
+  private final LongAdder normalizedLookups = new LongAdder();
+  private long indexNanos;
 
   InputFileProvider(FileSystem fs) {
     this.fs = fs;
   }
 
   public InputFile fromPath(String path) {
-    InputFile inputFile = fs.inputFile(fs.predicates().hasAbsolutePath(path));
-    if(inputFile == null) {
-      inputFile = fs.inputFile(fs.predicates().hasRelativePath(path));
+    InputFile inputFile = index().get(path);
+    if (inputFile != null || misses.contains(path)) {
+      return inputFile;
+    }
+    normalizedLookups.increment();
+    // files out of the base directory are indexed too, whatever the path they are reported with
+    inputFile = index.get(normalize(path));
+    if (inputFile == null) {
+      misses.add(path);
     }
     return inputFile;
   }
 
+  private Map<String, InputFile> index() {
+    Map<String, InputFile> result = index;
+    if (result == null) {
+      synchronized (this) {
+        result = index;
+        if (result == null) {
+          long start = System.nanoTime();
+          result = buildIndex();
+          indexNanos = System.nanoTime() - start;
+          index = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  private Map<String, InputFile> buildIndex() {
+    Map<String, InputFile> result = new HashMap<>();
+    Path baseDir = fs.baseDir().toPath().toAbsolutePath().normalize();
+    for (InputFile inputFile : fs.inputFiles(fs.predicates().all())) {
+      Path path = Paths.get(inputFile.uri());
+      if (path.startsWith(baseDir)) {
+        result.put(normalize(baseDir.relativize(path).toString()), inputFile);
+      }
+    }
+    // absolute paths win over relative paths which would look the same
+    for (InputFile inputFile : fs.inputFiles(fs.predicates().all())) {
+      result.put(normalize(Paths.get(inputFile.uri()).toString()), inputFile);
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of absolute and relative paths of the index, or 0 if it was not built
+   */
+  int indexedPaths() {
+    Map<String, InputFile> result = index;
+    return result == null ? 0 : result.size();
+  }
+
+  long indexNanos() {
+    return indexNanos;
+  }
+
+  long normalizedLookups() {
+    return normalizedLookups.sum();
+  }
+
+  static String normalize(String path) {
+    String result = path.replace('\\', '/');
+    if (result.contains("/./") || result.contains("/../") || result.contains("//")) {
+      result = Paths.get(result).normalize().toString().replace('\\', '/');
+    }
+    return result;
+  }
+
 }
@@ -0,0 +1,122 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON writer, used to dump the diagnostics files of the plugin.
+ */
+class JsonWriter implements Closeable {
+
+  private final Writer writer;
+  private boolean needsComma;
+
+  JsonWriter(Writer writer) {
+    this.writer = writer;
+  }
+
+  JsonWriter beginObject() throws IOException {
+    return open('{');
+  }
+
+  JsonWriter endObject() throws IOException {
+    return close('}');
+  }
+
+  JsonWriter beginArray() throws IOException {
+    return open('[');
+  }
+
+  JsonWriter endArray() throws IOException {
+    return close(']');
+  }
+
+  JsonWriter name(String name) throws IOException {
+    separate();
+    string(name);
+    writer.write(':');
+    needsComma = false;
+    return this;
+  }
+
+  JsonWriter value(String value) throws IOException {
+    separate();
+    string(value);
+    needsComma = true;
+    return this;
+  }
+
+  JsonWriter value(long value) throws IOException {
+    separate();
+    writer.write(Long.toString(value));
+    needsComma = true;
+    return this;
+  }
+
+  JsonWriter value(double value) throws IOException {
+    separate();
+    writer.write(Double.isFinite(value) ? Double.toString(value) : "null");
+    needsComma = true;
+    return this;
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+  private JsonWriter open(char c) throws IOException {
+    separate();
+    writer.write(c);
+    needsComma = false;
+    return this;
+  }
+
+  private JsonWriter close(char c) throws IOException {
+    writer.write(c);
+    needsComma = true;
+    return this;
+  }
+
+  private void separate() throws IOException {
+    if (needsComma) {
+      writer.write(',');
+    }
+  }
+
+  private void string(String value) throws IOException {
+    writer.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < 0x20) {
+        writer.write(String.format("\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+    writer.write('"');
+  }
+}
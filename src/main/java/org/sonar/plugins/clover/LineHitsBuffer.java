@@ -0,0 +1,198 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import java.util.Arrays;
+
+/**
+ * Collects the {@code line} elements of the current file in growable primitive arrays, which are reused from one file
+ * to the next. Once the file has been read, the lines are aggregated into a {@link FileCoverage}: through an array
+ * indexed by line number when the lines are dense enough, or by sorting them otherwise.
+ */
+class LineHitsBuffer {
+
+  // lines spread over more than this many slots per line element are sorted instead of being counted in a dense array
+  private static final int MAX_DENSE_SLOTS_PER_LINE = 4;
+
+  private int[] lines = new int[256];
+  private int[] hits = new int[256];
+  private int size;
+  private int[] conditionLines = new int[64];
+  private int[] trueCounts = new int[64];
+  private int[] falseCounts = new int[64];
+  private int conditions;
+  private boolean sorted = true;
+  private int[] dense = new int[0];
+  private boolean[] present = new boolean[0];
+  private long[] keys = new long[0];
+
+  void reset() {
+    size = 0;
+    conditions = 0;
+    sorted = true;
+  }
+
+  void addLineHits(int line, int lineHits) {
+    if (size == lines.length) {
+      lines = Arrays.copyOf(lines, size * 2);
+      hits = Arrays.copyOf(hits, size * 2);
+    }
+    if (size > 0 && line < lines[size - 1]) {
+      sorted = false;
+    }
+    lines[size] = line;
+    hits[size++] = lineHits;
+  }
+
+  void addConditions(int line, int trueCount, int falseCount) {
+    if (conditions == conditionLines.length) {
+      conditionLines = Arrays.copyOf(conditionLines, conditions * 2);
+      trueCounts = Arrays.copyOf(trueCounts, conditions * 2);
+      falseCounts = Arrays.copyOf(falseCounts, conditions * 2);
+    }
+    conditionLines[conditions] = line;
+    trueCounts[conditions] = trueCount;
+    falseCounts[conditions++] = falseCount;
+  }
+
+  FileCoverage toFileCoverage(boolean hasElements) {
+    int[][] aggregatedHits = aggregateHits();
+    int[][] sortedConditions = sortConditions();
+    return new FileCoverage(hasElements, aggregatedHits[0], aggregatedHits[1], sortedConditions[0], sortedConditions[1], sortedConditions[2]);
+  }
+
+  private int[][] aggregateHits() {
+    if (size == 0) {
+      return new int[][] {new int[0], new int[0]};
+    }
+    if (sorted) {
+      return sumSortedHits();
+    }
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    for (int i = 0; i < size; i++) {
+      min = Math.min(min, lines[i]);
+      max = Math.max(max, lines[i]);
+    }
+    long span = (long) max - min + 1;
+    if (span <= (long) size * MAX_DENSE_SLOTS_PER_LINE) {
+      return sumDenseHits(min, (int) span);
+    }
+    return sumSparseHits();
+  }
+
+  private int[][] sumSortedHits() {
+    int[] resultLines = new int[size];
+    int[] resultHits = new int[size];
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (count > 0 && resultLines[count - 1] == lines[i]) {
+        resultHits[count - 1] = FileCoverage.saturatedAdd(resultHits[count - 1], hits[i]);
+      } else {
+        resultLines[count] = lines[i];
+        resultHits[count++] = hits[i];
+      }
+    }
+    return new int[][] {Arrays.copyOf(resultLines, count), Arrays.copyOf(resultHits, count)};
+  }
+
+  private int[][] sumDenseHits(int min, int span) {
+    if (dense.length < span) {
+      dense = new int[Math.max(span, dense.length * 2)];
+      present = new boolean[dense.length];
+    }
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      int slot = lines[i] - min;
+      if (present[slot]) {
+        dense[slot] = FileCoverage.saturatedAdd(dense[slot], hits[i]);
+      } else {
+        present[slot] = true;
+        dense[slot] = hits[i];
+        count++;
+      }
+    }
+    int[] resultLines = new int[count];
+    int[] resultHits = new int[count];
+    int n = 0;
+    for (int slot = 0; slot < span; slot++) {
+      if (present[slot]) {
+        present[slot] = false;
+        resultLines[n] = min + slot;
+        resultHits[n++] = dense[slot];
+      }
+    }
+    return new int[][] {resultLines, resultHits};
+  }
+
+  private int[][] sumSparseHits() {
+    if (keys.length < size) {
+      keys = new long[Math.max(size, keys.length * 2)];
+    }
+    for (int i = 0; i < size; i++) {
+      keys[i] = ((long) lines[i] << 32) | i;
+    }
+    Arrays.sort(keys, 0, size);
+    int[] resultLines = new int[size];
+    int[] resultHits = new int[size];
+    int count = 0;
+    for (int k = 0; k < size; k++) {
+      int i = (int) keys[k];
+      if (count > 0 && resultLines[count - 1] == lines[i]) {
+        resultHits[count - 1] = FileCoverage.saturatedAdd(resultHits[count - 1], hits[i]);
+      } else {
+        resultLines[count] = lines[i];
+        resultHits[count++] = hits[i];
+      }
+    }
+    return new int[][] {Arrays.copyOf(resultLines, count), Arrays.copyOf(resultHits, count)};
+  }
+
+  private int[][] sortConditions() {
+    int[] resultLines = new int[conditions];
+    int[] resultTrue = new int[conditions];
+    int[] resultFalse = new int[conditions];
+    boolean conditionsSorted = true;
+    for (int i = 1; i < conditions && conditionsSorted; i++) {
+      conditionsSorted = conditionLines[i - 1] <= conditionLines[i];
+    }
+    if (conditionsSorted) {
+      System.arraycopy(conditionLines, 0, resultLines, 0, conditions);
+      System.arraycopy(trueCounts, 0, resultTrue, 0, conditions);
+      System.arraycopy(falseCounts, 0, resultFalse, 0, conditions);
+    } else {
+      if (keys.length < conditions) {
+        keys = new long[Math.max(conditions, keys.length * 2)];
+      }
+      // the index in the low bits keeps the report order of the conditions of a line
+      for (int i = 0; i < conditions; i++) {
+        keys[i] = ((long) conditionLines[i] << 32) | i;
+      }
+      Arrays.sort(keys, 0, conditions);
+      for (int k = 0; k < conditions; k++) {
+        int i = (int) keys[k];
+        resultLines[k] = conditionLines[i];
+        resultTrue[k] = trueCounts[i];
+        resultFalse[k] = falseCounts[i];
+      }
+    }
+    return new int[][] {resultLines, resultTrue, resultFalse};
+  }
+}
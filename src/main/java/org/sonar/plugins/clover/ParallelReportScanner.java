@@ -0,0 +1,271 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads the packages of a single Clover report in parallel with {@link CloverByteScanner}. A first pass finds the
+ * offsets of the packages, which are then grouped in chunks of similar sizes and read on a fork/join pool. The data of
+ * the chunks is passed to the handler in document order, so that the handler receives the same calls as with a single
+ * scanner. Packages of the project and of the tests are never in the same chunk.
+ */
+class ParallelReportScanner {
+
+  static final long DEFAULT_MIN_REPORT_SIZE = 8L * 1024 * 1024;
+  private static final int CHUNKS_PER_THREAD = 4;
+  // bounds the events held by the chunks read ahead, whatever the size of the report
+  static final long MAX_CHUNK_SIZE = 4L * 1024 * 1024;
+  // chunks read ahead of the one passed to the handler
+  private static final int PENDING_CHUNKS_PER_THREAD = 2;
+
+  private final CloverReportHandler handler;
+  private final ForkJoinPool pool;
+  private final long minReportSize;
+  private final ReadOptions options;
+  private long maxChunkSize = MAX_CHUNK_SIZE;
+
+  ParallelReportScanner(CloverReportHandler handler, ForkJoinPool pool, long minReportSize) {
+    this(handler, pool, minReportSize, ReadOptions.DEFAULT);
+  }
+
+  ParallelReportScanner(CloverReportHandler handler, ForkJoinPool pool, long minReportSize, ReadOptions options) {
+    this.handler = handler;
+    this.pool = pool;
+    this.minReportSize = minReportSize;
+    this.options = options;
+  }
+
+  /**
+   * Chunks hold packages up to the given size in total, or a single package which is larger.
+   */
+  void setMaxChunkSize(long size) {
+    this.maxChunkSize = size;
+  }
+
+  void scan(File report) throws IOException, XMLStreamException {
+    if (report.length() < minReportSize) {
+      // not worth a first pass
+      new CloverByteScanner(handler, options).scan(report);
+      return;
+    }
+    CloverByteScanner.PackageIndex index = new CloverByteScanner(handler, options).indexPackages(report);
+    List<int[]> chunks = chunksOf(index);
+    Deque<ForkJoinTask<ChunkEvents>> pending = new ArrayDeque<>();
+    int submitted = 0;
+    int maxPending = pool.getParallelism() * PENDING_CHUNKS_PER_THREAD;
+    boolean testsStarted = false;
+    try {
+      for (int i = 0; i < chunks.size(); i++) {
+        while (submitted < chunks.size() && submitted < i + maxPending) {
+          int[] chunk = chunks.get(submitted++);
+          pending.add(pool.submit(() -> {
+            ChunkEvents events = new ChunkEvents(handler, index.isTests(chunk[0]));
+            new CloverByteScanner(events, options).scanPackages(report, index, chunk[0], chunk[1]);
+            return events;
+          }));
+        }
+        ChunkEvents events = await(pending.poll());
+        if (index.isTests(chunks.get(i)[0]) && !testsStarted) {
+          handler.startTests();
+          testsStarted = true;
+        }
+        events.replayTo(handler);
+      }
+      if (index.hasTests() && !testsStarted) {
+        handler.startTests();
+      }
+    } finally {
+      pending.forEach(task -> task.cancel(true));
+    }
+  }
+
+  /**
+   * @return the first and last packages of each chunk
+   */
+  private List<int[]> chunksOf(CloverByteScanner.PackageIndex index) {
+    List<int[]> chunks = new ArrayList<>();
+    if (index.size() == 0) {
+      return chunks;
+    }
+    long totalSize = index.end(index.size() - 1) - index.start(0);
+    long chunkSize = Math.min(maxChunkSize, Math.max(1, totalSize / ((long) pool.getParallelism() * CHUNKS_PER_THREAD)));
+    int first = 0;
+    for (int i = 0; i < index.size(); i++) {
+      boolean lastOfSection = i == index.size() - 1 || index.isTests(i) != index.isTests(i + 1);
+      if (index.end(i) - index.start(first) >= chunkSize || lastOfSection) {
+        chunks.add(new int[] {first, i});
+        first = i + 1;
+      }
+    }
+    return chunks;
+  }
+
+  private static ChunkEvents await(ForkJoinTask<ChunkEvents> task) throws IOException, XMLStreamException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading Clover report");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof XMLStreamException) {
+        throw (XMLStreamException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * The calls received while reading a chunk, to be passed to the handler later on. The packages and the files which
+   * the handler does not accept are skipped while reading the chunk already.
+   */
+  private static class ChunkEvents implements CloverReportHandler {
+
+    private static final int START = 0;
+    private static final int METRICS = 1;
+    private static final int HITS = 2;
+    private static final int CONDITIONS = 3;
+    private static final int END = 4;
+    private static final int TOTALS = 5;
+
+    private final CloverReportHandler target;
+    private final boolean tests;
+    private final List<String> paths = new ArrayList<>();
+    private int[] events = new int[1024];
+    private int length;
+
+    ChunkEvents(CloverReportHandler target, boolean tests) {
+      this.target = target;
+      this.tests = tests;
+    }
+
+    @Override
+    public boolean acceptsPackage(String name) {
+      return target.acceptsPackage(name);
+    }
+
+    @Override
+    public boolean startFile(String path) {
+      paths.add(path);
+      add(START);
+      return target.acceptsFile(path, tests);
+    }
+
+    @Override
+    public void fileMetrics(boolean hasElements) {
+      add(METRICS);
+      add(hasElements ? 1 : 0);
+    }
+
+    @Override
+    public void lineHits(int line, int hits) {
+      add(HITS);
+      add(line);
+      add(hits);
+    }
+
+    @Override
+    public void conditions(int line, int trueCount, int falseCount) {
+      add(CONDITIONS);
+      add(line);
+      add(trueCount);
+      add(falseCount);
+    }
+
+    @Override
+    public void endFile() {
+      add(END);
+    }
+
+    @Override
+    public void fileTotals(int statements, int coveredStatements, int conditionals, int coveredConditionals) {
+      add(TOTALS);
+      add(statements);
+      add(coveredStatements);
+      add(conditionals);
+      add(coveredConditionals);
+    }
+
+    private void add(int value) {
+      if (length == events.length) {
+        events = Arrays.copyOf(events, length * 2);
+      }
+      events[length++] = value;
+    }
+
+    void replayTo(CloverReportHandler target) {
+      int file = 0;
+      boolean accepted = false;
+      int i = 0;
+      while (i < length) {
+        switch (events[i++]) {
+          case START:
+            accepted = target.startFile(paths.get(file++));
+            break;
+          case METRICS:
+            if (accepted) {
+              target.fileMetrics(events[i] == 1);
+            }
+            i++;
+            break;
+          case HITS:
+            if (accepted) {
+              target.lineHits(events[i], events[i + 1]);
+            }
+            i += 2;
+            break;
+          case CONDITIONS:
+            if (accepted) {
+              target.conditions(events[i], events[i + 1], events[i + 2]);
+            }
+            i += 3;
+            break;
+          case TOTALS:
+            if (accepted) {
+              target.fileTotals(events[i], events[i + 1], events[i + 2], events[i + 3]);
+            }
+            i += 4;
+            break;
+          default:
+            if (accepted) {
+              target.endFile();
+            }
+            break;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.CheckForNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Inclusion and exclusion patterns of the files of a report, such as {@code **}{@code /generated/**} or
+ * {@code **}{@code /*_.java}. A file is kept when its path matches one of the inclusions, if any, and none of the
+ * exclusions. The patterns of each kind are compiled once into a single regular expression, an alternation which is
+ * matched with one call per path, the branches being tried in turn until one matches.
+ * <p>
+ * In patterns, {@code *} matches any characters but slashes, {@code **} any directories and {@code ?} one character.
+ * Patterns which do not start with a slash match the end of the paths, from a directory boundary. Backslashes are read
+ * as slashes, as in {@link PathRemapper}.
+ * <p>
+ * The exclusions which end with {@code /**} also apply to packages: a package whose name, read as a directory, matches
+ * such a pattern is skipped as a whole, since all its files would be excluded.
+ */
+class PathFilter {
+
+  static final PathFilter NONE = new PathFilter(new String[0], new String[0]);
+
+  @CheckForNull
+  private final Pattern inclusions;
+  @CheckForNull
+  private final Pattern exclusions;
+  @CheckForNull
+  private final Pattern packageExclusions;
+
+  PathFilter(String[] inclusions, String[] exclusions) {
+    this.inclusions = compile(patternsOf(inclusions));
+    this.exclusions = compile(patternsOf(exclusions));
+    List<String> subtrees = new ArrayList<>();
+    for (String exclusion : patternsOf(exclusions)) {
+      if (exclusion.endsWith("/**") && !exclusion.startsWith("/")) {
+        subtrees.add(exclusion);
+      }
+    }
+    this.packageExclusions = compile(subtrees);
+  }
+
+  boolean isEmpty() {
+    return inclusions == null && exclusions == null;
+  }
+
+  boolean accepts(String path) {
+    if (isEmpty()) {
+      return true;
+    }
+    String normalized = path.replace('\\', '/');
+    return (inclusions == null || inclusions.matcher(normalized).matches())
+      && (exclusions == null || !exclusions.matcher(normalized).matches());
+  }
+
+  boolean acceptsPackage(String name) {
+    return packageExclusions == null || !packageExclusions.matcher(name.replace('.', '/')).matches();
+  }
+
+  /**
+   * @return a suffix of the keys of the cached reports, which only hold the packages not skipped as a whole, empty
+   * when no package is skipped
+   */
+  String packageExclusionsKey() {
+    return packageExclusions == null ? "" : String.format("-x%08x", packageExclusions.pattern().hashCode());
+  }
+
+  private static List<String> patternsOf(String[] values) {
+    List<String> patterns = new ArrayList<>();
+    for (String value : values) {
+      if (StringUtils.isNotBlank(value)) {
+        patterns.add(value.trim().replace('\\', '/'));
+      }
+    }
+    return patterns;
+  }
+
+  @CheckForNull
+  private static Pattern compile(List<String> globs) {
+    if (globs.isEmpty()) {
+      return null;
+    }
+    StringBuilder regex = new StringBuilder();
+    for (String glob : globs) {
+      if (regex.length() > 0) {
+        regex.append('|');
+      }
+      regex.append("(?:");
+      if (!glob.startsWith("/")) {
+        regex.append("(?:.*/)?");
+      }
+      appendGlob(regex, glob);
+      regex.append(')');
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  private static void appendGlob(StringBuilder regex, String glob) {
+    int i = 0;
+    while (i < glob.length()) {
+      char c = glob.charAt(i);
+      if (glob.startsWith("**/", i)) {
+        regex.append("(?:.*/)?");
+        i += 3;
+      } else if (glob.startsWith("/**", i) && i + 3 == glob.length()) {
+        regex.append("(?:/.*)?");
+        i += 3;
+      } else if (glob.startsWith("**", i)) {
+        regex.append(".*");
+        i += 2;
+      } else if (c == '*') {
+        regex.append("[^/]*");
+        i++;
+      } else if (c == '?') {
+        regex.append("[^/]");
+        i++;
+      } else {
+        if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+          regex.append('\\');
+        }
+        regex.append(c);
+        i++;
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.utils.MessageException;
+
+import java.util.Arrays;
+
+/**
+ * Rewrites the prefix of the paths found in a report, for reports produced on another machine than the one running
+ * the analysis. Rules such as {@code /workspace=/home/ci} are compiled into a trie, so that a path is remapped in a
+ * single walk over its characters, using the longest rule which ends on a directory boundary.
+ * <p>
+ * Backslashes are read as slashes and drive letters are not case sensitive, so that {@code C:\build} and
+ * {@code \\server\share} rules match the paths written by Windows builds.
+ */
+class PathRemapper {
+
+  static final PathRemapper NONE = new PathRemapper(new String[0]);
+
+  private final Node root = new Node();
+  private final boolean empty;
+
+  PathRemapper(String[] rules) {
+    boolean hasRule = false;
+    for (String rule : rules) {
+      if (StringUtils.isNotBlank(rule)) {
+        addRule(rule.trim());
+        hasRule = true;
+      }
+    }
+    this.empty = !hasRule;
+  }
+
+  private void addRule(String rule) {
+    int separator = rule.indexOf('=');
+    if (separator <= 0) {
+      throw MessageException.of("Invalid Clover path mapping '" + rule + "', expected format is 'from=to'");
+    }
+    String from = StringUtils.removeEnd(rule.substring(0, separator).trim().replace('\\', '/'), "/");
+    String to = StringUtils.removeEnd(rule.substring(separator + 1).trim().replace('\\', '/'), "/");
+    Node node = root;
+    for (int i = 0; i < from.length(); i++) {
+      node = node.childOrCreate(charAt(from, i));
+    }
+    node.replacement = to;
+  }
+
+  /**
+   * @return the remapped path, or the given instance when no rule applies
+   */
+  String remap(String path) {
+    if (empty) {
+      return path;
+    }
+    Node node = root;
+    String replacement = null;
+    int matchEnd = 0;
+    for (int i = 0; i < path.length() && node != null; i++) {
+      node = node.child(charAt(path, i));
+      if (node != null && node.replacement != null && isBoundary(path, i + 1)) {
+        replacement = node.replacement;
+        matchEnd = i + 1;
+      }
+    }
+    if (replacement == null) {
+      return path;
+    }
+    return replacement + path.substring(matchEnd);
+  }
+
+  private static boolean isBoundary(String path, int index) {
+    return index == path.length() || path.charAt(index) == '/' || path.charAt(index) == '\\';
+  }
+
+  private static char charAt(String path, int index) {
+    char c = path.charAt(index);
+    if (c == '\\') {
+      return '/';
+    }
+    if (index == 0 && path.length() > 1 && path.charAt(1) == ':') {
+      return Character.toUpperCase(c);
+    }
+    return c;
+  }
+
+  private static class Node {
+    private char[] keys = new char[0];
+    private Node[] children = new Node[0];
+    private String replacement;
+
+    private Node child(char key) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == key) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    private Node childOrCreate(char key) {
+      Node child = child(key);
+      if (child == null) {
+        child = new Node();
+        keys = Arrays.copyOf(keys, keys.length + 1);
+        children = Arrays.copyOf(children, children.length + 1);
+        keys[keys.length - 1] = key;
+        children[children.length - 1] = child;
+      }
+      return child;
+    }
+  }
+}
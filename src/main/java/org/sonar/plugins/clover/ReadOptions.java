@@ -0,0 +1,49 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+/**
+ * What the readers of Clover reports pass to their {@link CloverReportHandler}, besides the lines of the files of the
+ * {@code <project>} section.
+ */
+final class ReadOptions {
+
+  static final ReadOptions DEFAULT = new ReadOptions(false, false);
+
+  private final boolean tests;
+  private final boolean fileMetricsOnly;
+
+  /**
+   * @param tests whether the files of the {@code <testproject>} section are read too
+   * @param fileMetricsOnly whether only the {@code metrics} element of the files is read, instead of their lines
+   */
+  ReadOptions(boolean tests, boolean fileMetricsOnly) {
+    this.tests = tests;
+    this.fileMetricsOnly = fileMetricsOnly;
+  }
+
+  boolean tests() {
+    return tests;
+  }
+
+  boolean fileMetricsOnly() {
+    return fileMetricsOnly;
+  }
+}
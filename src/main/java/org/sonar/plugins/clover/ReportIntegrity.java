@@ -0,0 +1,126 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.sonar.api.utils.MessageException;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that a Clover report was entirely written before it is read, so that a report cut short by a killed build
+ * fails the analysis at once rather than once most of it is read and part of its coverage is saved. Only the last bytes
+ * of the report are read: an XML report ends with the end tag of its {@code coverage} element, a JSON report with a
+ * closing brace, which a JSON report cut after one of its inner objects also has, and a report compressed with xz
+ * with the magic bytes of its footer. Comments and processing instructions may follow the end tag of an XML report, as
+ * long as the end tag is within the last bytes. The content of a report is also checked against a SHA-256 sidecar file,
+ * such as {@code clover.xml.sha256}, when there is one, and its SHA-256 is then returned to be reused as the key of the
+ * caches.
+ */
+final class ReportIntegrity {
+
+  static final String CHECKSUM_SUFFIX = ".sha256";
+  private static final int TAIL_SIZE = 256;
+  private static final Pattern XML_END = Pattern.compile("(?s).*</coverage\\s*>(\\s*(<!--.*?-->|<\\?.*?\\?>))*\\s*$");
+  private static final Pattern JSON_END = Pattern.compile("(?s).*}\\s*$");
+  private static final Pattern CHECKSUM = Pattern.compile("[0-9a-fA-F]{64}");
+  private static final byte[] XZ_FOOTER_MAGIC = {'Y', 'Z'};
+
+  private ReportIntegrity() {
+  }
+
+  /**
+   * @return the SHA-256 of the content of the report if it was computed to check its checksum, null otherwise
+   * @throws MessageException if the report is cut short, or does not match its checksum
+   */
+  @CheckForNull
+  static String check(File report) throws IOException {
+    checkTail(report);
+    File sidecar = new File(report.getPath() + CHECKSUM_SUFFIX);
+    return sidecar.isFile() ? checkChecksum(report, sidecar) : null;
+  }
+
+  private static void checkTail(File report) throws IOException {
+    ReportStreams.Compression compression = ReportStreams.compressionOf(report);
+    byte[] tail = tailOf(report);
+    if (compression == ReportStreams.Compression.XZ) {
+      if (!endsWith(tail, XZ_FOOTER_MAGIC)) {
+        throw truncated(report, "it does not end with the footer of an xz stream");
+      }
+    } else if (compression == ReportStreams.Compression.NONE) {
+      // the tail is decoded as ASCII, the end tag and the braces being ASCII in every encoding which Clover writes
+      String end = new String(tail, StandardCharsets.ISO_8859_1);
+      if (ReportStreams.isJson(report)) {
+        if (!JSON_END.matcher(end).matches()) {
+          throw truncated(report, "it does not end with '}'");
+        }
+      } else if (!XML_END.matcher(end).matches()) {
+        throw truncated(report, "it does not end with </coverage>");
+      }
+    }
+    // the other compressed formats have no footer to check
+  }
+
+  private static byte[] tailOf(File report) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(report, "r")) {
+      int length = (int) Math.min(TAIL_SIZE, file.length());
+      byte[] tail = new byte[length];
+      file.seek(file.length() - length);
+      file.readFully(tail);
+      return tail;
+    }
+  }
+
+  private static boolean endsWith(byte[] tail, byte[] suffix) {
+    if (tail.length < suffix.length) {
+      return false;
+    }
+    for (int i = 0; i < suffix.length; i++) {
+      if (tail[tail.length - suffix.length + i] != suffix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String checkChecksum(File report, File sidecar) throws IOException {
+    // as written by sha256sum: the checksum, then the name of the file
+    String content = new String(Files.readAllBytes(sidecar.toPath()), StandardCharsets.US_ASCII).trim();
+    String expected = content.split("\\s+", 2)[0];
+    if (!CHECKSUM.matcher(expected).matches()) {
+      throw MessageException.of("Invalid checksum in " + sidecar + ", expected the SHA-256 of " + report.getName());
+    }
+    String actual = CoverageCache.sha256Of(report);
+    if (!expected.toLowerCase(Locale.ENGLISH).equals(actual)) {
+      throw MessageException.of("Clover report " + report + " does not match its checksum in " + sidecar.getName());
+    }
+    return actual;
+  }
+
+  private static MessageException truncated(File report, String reason) {
+    return MessageException.of("Clover report " + report + " is truncated: " + reason);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.scan.filesystem.PathResolver;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Resolves the entries of the report paths property, which are either plain paths or glob patterns such as
+ * {@code target/clover/shard-*.xml}, relative to the project base directory.
+ */
+class ReportLocator {
+
+  private static final String GLOB_CHARS = "*?[{";
+
+  private final File baseDir;
+  private final PathResolver pathResolver;
+
+  ReportLocator(File baseDir, PathResolver pathResolver) {
+    this.baseDir = baseDir;
+    this.pathResolver = pathResolver;
+  }
+
+  List<File> locate(String entry) {
+    String pattern = entry.trim().replace('\\', '/');
+    int globIndex = StringUtils.indexOfAny(pattern, GLOB_CHARS);
+    if (globIndex < 0) {
+      return Collections.singletonList(pathResolver.relativeFile(baseDir, pattern));
+    }
+    int rootEnd = pattern.lastIndexOf('/', globIndex);
+    File root = rootEnd < 0 ? baseDir : pathResolver.relativeFile(baseDir, pattern.substring(0, rootEnd + 1));
+    if (!root.isDirectory()) {
+      return Collections.emptyList();
+    }
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(rootEnd + 1));
+    Path rootPath = root.toPath();
+    try (Stream<Path> paths = Files.walk(rootPath)) {
+      return paths
+        .filter(Files::isRegularFile)
+        .filter(path -> matcher.matches(rootPath.relativize(path)))
+        .sorted()
+        .map(Path::toFile)
+        .collect(Collectors.toList());
+    } catch (IOException e) {
+      Loggers.get(ReportLocator.class).warn("Unable to search Clover reports matching " + entry, e);
+      return Collections.emptyList();
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens Clover reports, which may be compressed with gzip, xz or zstd. The compression, and whether the report is in
+ * the JSON format of the plugin, are detected from the first bytes of the file, whatever its name, and compressed reports are decompressed on
+ * the fly: the decompression runs on its own thread, ahead of the parsing.
+ */
+final class ReportStreams {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int READ_AHEAD_BUFFERS = 16;
+  private static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+  private static final byte[] XZ_MAGIC = {(byte) 0xfd, '7', 'z', 'X', 'Z', 0};
+  private static final byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd};
+
+  enum Compression {
+    NONE, GZIP, XZ, ZSTD
+  }
+
+  private ReportStreams() {
+  }
+
+  static Compression compressionOf(File report) throws IOException {
+    byte[] header = new byte[XZ_MAGIC.length];
+    int length;
+    try (InputStream input = Files.newInputStream(report.toPath())) {
+      length = input.readNBytes(header, 0, header.length);
+    }
+    return compressionOf(header, length);
+  }
+
+  private static Compression compressionOf(byte[] header, int length) {
+    if (startsWith(header, length, GZIP_MAGIC)) {
+      return Compression.GZIP;
+    } else if (startsWith(header, length, XZ_MAGIC)) {
+      return Compression.XZ;
+    } else if (startsWith(header, length, ZSTD_MAGIC)) {
+      return Compression.ZSTD;
+    }
+    return Compression.NONE;
+  }
+
+  /**
+   * @return the decompressed content of the report
+   */
+  static InputStream open(File report) throws IOException {
+    return open(report, true);
+  }
+
+  /**
+   * @param readAhead whether compressed reports are decompressed on a thread of their own
+   */
+  private static InputStream open(File report, boolean readAhead) throws IOException {
+    InputStream input = new BufferedInputStream(Files.newInputStream(report.toPath()), BUFFER_SIZE);
+    try {
+      input.mark(XZ_MAGIC.length);
+      byte[] header = new byte[XZ_MAGIC.length];
+      int length = input.readNBytes(header, 0, header.length);
+      input.reset();
+      InputStream decompressed;
+      switch (compressionOf(header, length)) {
+        case GZIP:
+          // reads all the members of concatenated gzip files
+          decompressed = new GZIPInputStream(input, BUFFER_SIZE);
+          break;
+        case XZ:
+          decompressed = new XZInputStream(input);
+          break;
+        case ZSTD:
+          decompressed = new ZstdInputStream(input);
+          break;
+        default:
+          return input;
+      }
+      return readAhead ? new ReadAheadInputStream(decompressed) : decompressed;
+    } catch (IOException | RuntimeException e) {
+      input.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return true if the decompressed report is a JSON document rather than an XML one, from its first character
+   */
+  static boolean isJson(File report) throws IOException {
+    // only the first bytes are read, which is not worth a decompression thread
+    try (InputStream input = open(report, false)) {
+      int c;
+      do {
+        c = input.read();
+        // whitespaces and byte order mark
+      } while (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == 0xef || c == 0xbb || c == 0xbf);
+      return c == '{';
+    }
+  }
+
+  private static boolean startsWith(byte[] header, int length, byte[] magic) {
+    return length >= magic.length && Arrays.equals(header, 0, magic.length, magic, 0, magic.length);
+  }
+
+  /**
+   * Reads the given stream on a background thread, so that decompression and parsing use two cores.
+   */
+  private static class ReadAheadInputStream extends InputStream {
+
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(READ_AHEAD_BUFFERS);
+    private final Thread reader;
+    private volatile IOException failure;
+    private byte[] current = new byte[0];
+    private int pos;
+    private boolean ended;
+
+    ReadAheadInputStream(InputStream input) {
+      reader = new Thread(() -> readAll(input), "clover-report-decompression");
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    private void readAll(InputStream input) {
+      try (InputStream in = input) {
+        while (true) {
+          byte[] buffer = new byte[BUFFER_SIZE];
+          int length = in.readNBytes(buffer, 0, buffer.length);
+          if (length == 0) {
+            break;
+          }
+          buffers.put(length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+        }
+      } catch (IOException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        // corrupted input may be reported as unchecked exceptions by the decompressors
+        failure = new IOException("Unable to decompress Clover report", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      try {
+        buffers.put(END);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int length = Math.min(len, current.length - pos);
+      System.arraycopy(current, pos, b, off, length);
+      pos += length;
+      return length;
+    }
+
+    private boolean fill() throws IOException {
+      while (pos == current.length) {
+        if (ended) {
+          return false;
+        }
+        try {
+          current = buffers.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while decompressing Clover report");
+        }
+        pos = 0;
+        if (current == END) {
+          ended = true;
+          if (failure != null) {
+            throw failure;
+          }
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void close() {
+      reader.interrupt();
+      buffers.clear();
+    }
+  }
+}
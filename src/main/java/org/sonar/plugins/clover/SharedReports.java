@@ -0,0 +1,110 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.ScannerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Clover reports read during the analysis, shared by the modules of a multi-module project so that an aggregated report
+ * is parsed by the first module only. The reports are spilled to the work directory of the module which read them, in
+ * the binary form of the entries of {@link CoverageCache}, keyed by the SHA-256 of their content, and replayed to the
+ * sensors of the next modules, which only keep the files of their own file system. Only the paths of the entries are
+ * kept in memory, and the work directory is cleaned by the next analysis. The content of a report file is hashed once
+ * per analysis.
+ */
+@ScannerSide
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class SharedReports {
+
+  private static final Logger LOG = Loggers.get(SharedReports.class);
+  static final String DIRECTORY = "clover-shared-reports";
+
+  private final Map<String, Path> entries = new ConcurrentHashMap<>();
+  // keys of the report files already hashed, by path, size and modification time
+  private final Map<String, String> keys = new ConcurrentHashMap<>();
+
+  String keyOf(File report, boolean withTests) throws IOException {
+    return keyOf(report, withTests, null);
+  }
+
+  /**
+   * @param sha256 the SHA-256 of the content of the report if it is already known, null to hash the report
+   */
+  String keyOf(File report, boolean withTests, @Nullable String sha256) throws IOException {
+    File canonical = report.getCanonicalFile();
+    String id = canonical.getPath() + ':' + canonical.length() + ':' + canonical.lastModified() + ':' + withTests;
+    String key = keys.get(id);
+    if (key == null) {
+      key = sha256 != null ? CoverageCache.contentKey(sha256, withTests) : CoverageCache.contentKey(canonical, withTests);
+      keys.put(id, key);
+    }
+    return key;
+  }
+
+  /**
+   * @return false if no report with the given key was read yet
+   */
+  boolean replay(String key, CloverReportHandler handler) throws IOException {
+    Path entry = entries.get(key);
+    if (entry == null) {
+      return false;
+    }
+    CoverageCache.replay(Files.newInputStream(entry), handler, entry.toString());
+    return true;
+  }
+
+  /**
+   * @param workDir the work directory of the module which reads the report
+   * @return a handler which forwards the data of the report to the given handler, and keeps the data of all the files
+   * for the next modules once committed
+   */
+  CoverageCache.Recorder recorder(String key, CloverReportHandler delegate, Path workDir) throws IOException {
+    Path directory = Files.createDirectories(workDir.resolve(DIRECTORY));
+    Path entry = Files.createTempFile(directory, key, CoverageCache.ENTRY_SUFFIX);
+    return new CoverageCache.Recorder(delegate, Files.newOutputStream(entry)) {
+      @Override
+      void commit() throws IOException {
+        super.commit();
+        entries.put(key, entry);
+      }
+
+      @Override
+      void abort() {
+        super.abort();
+        try {
+          Files.deleteIfExists(entry);
+        } catch (IOException e) {
+          LOG.debug("Unable to delete " + entry, e);
+        }
+      }
+    };
+  }
+}
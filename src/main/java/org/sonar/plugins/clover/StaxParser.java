@@ -20,7 +20,6 @@
 package org.sonar.plugins.clover;
 
 import com.ctc.wstx.stax.WstxInputFactory;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.staxmate.SMInputFactory;
 import org.codehaus.staxmate.in.SMHierarchicCursor;
@@ -29,7 +28,6 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLResolver;
 import javax.xml.stream.XMLStreamException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -53,9 +51,8 @@ class StaxParser {
     }
 
     void parse(File xmlFile) throws XMLStreamException {
-        try (FileInputStream input = new FileInputStream(xmlFile)) {
+        try (InputStream input = ReportStreams.open(xmlFile)) {
             parse(input);
-            IOUtils.closeQuietly(input);
         } catch (IOException e) {
             throw new XMLStreamException(e);
         }
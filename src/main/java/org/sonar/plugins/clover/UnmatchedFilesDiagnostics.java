@@ -0,0 +1,127 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Counts the files of a report which did not match any file of the module, grouped by directory. Only a bounded number
+ * of directories and sample paths are kept, whatever the size of the report.
+ */
+class UnmatchedFilesDiagnostics {
+
+  static final String REPORT_FILE_NAME = "clover-unmatched-files.json";
+  private static final int MAX_DIRECTORIES = 1_000;
+  private static final int MAX_SAMPLES = 20;
+  private static final int LOGGED_DIRECTORIES = 5;
+  private static final int REPORTED_DIRECTORIES = 100;
+
+  private final Map<String, Integer> countByDirectory = new HashMap<>();
+  private final List<String> samples = new ArrayList<>();
+  private int count;
+  private int untrackedCount;
+
+  void add(String path) {
+    count++;
+    if (samples.size() < MAX_SAMPLES) {
+      samples.add(path);
+    }
+    addDirectory(directoryOf(path), 1);
+  }
+
+  void addAll(UnmatchedFilesDiagnostics other) {
+    count += other.count;
+    untrackedCount += other.untrackedCount;
+    for (String sample : other.samples) {
+      if (samples.size() < MAX_SAMPLES) {
+        samples.add(sample);
+      }
+    }
+    other.countByDirectory.forEach(this::addDirectory);
+  }
+
+  private void addDirectory(String directory, int files) {
+    if (countByDirectory.size() < MAX_DIRECTORIES || countByDirectory.containsKey(directory)) {
+      countByDirectory.merge(directory, files, Integer::sum);
+    } else {
+      untrackedCount += files;
+    }
+  }
+
+  int count() {
+    return count;
+  }
+
+  /**
+   * @return the directories with the most unmatched files, with their counts
+   */
+  String summary() {
+    List<Map.Entry<String, Integer>> top = topDirectories(LOGGED_DIRECTORIES);
+    String summary = top.stream()
+      .map(entry -> entry.getKey() + " (" + entry.getValue() + ")")
+      .collect(Collectors.joining(", "));
+    if (countByDirectory.size() > top.size() || untrackedCount > 0) {
+      summary += " and other directories";
+    }
+    return summary;
+  }
+
+  void writeTo(File workDir) throws IOException {
+    Files.createDirectories(workDir.toPath());
+    File reportFile = new File(workDir, REPORT_FILE_NAME);
+    List<Map.Entry<String, Integer>> top = topDirectories(REPORTED_DIRECTORIES);
+    try (JsonWriter json = new JsonWriter(new OutputStreamWriter(Files.newOutputStream(reportFile.toPath()), StandardCharsets.UTF_8))) {
+      json.beginObject()
+        .name("unmatchedFiles").value(count)
+        .name("directories").beginArray();
+      for (Map.Entry<String, Integer> entry : top) {
+        json.beginObject().name("path").value(entry.getKey()).name("count").value(entry.getValue()).endObject();
+      }
+      json.endArray()
+        .name("filesInOtherDirectories").value(count - top.stream().mapToInt(Map.Entry::getValue).sum())
+        .name("samples").beginArray();
+      for (String sample : samples) {
+        json.value(sample);
+      }
+      json.endArray().endObject();
+    }
+  }
+
+  private List<Map.Entry<String, Integer>> topDirectories(int limit) {
+    return countByDirectory.entrySet().stream()
+      .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+      .limit(limit)
+      .collect(Collectors.toList());
+  }
+
+  private static String directoryOf(String path) {
+    int separator = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+    return separator < 0 ? "" : path.substring(0, separator);
+  }
+}
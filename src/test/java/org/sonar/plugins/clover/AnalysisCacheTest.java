@@ -0,0 +1,152 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Test;
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+import org.sonar.plugins.clover.CloverByteScannerTest.RecordingHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AnalysisCacheTest {
+
+  @Test
+  public void should_not_be_available_on_older_servers() {
+    assertThat(AnalysisCache.of(SensorContextTester.create(new File("src/test/resources/")))).isNull();
+  }
+
+  @Test
+  public void should_replay_reports_of_previous_analysis() throws Exception {
+    InMemoryStore store = new InMemoryStore();
+    File report = TestUtils.getResource(CloverXmlReportParserTest.class, "clover_3_2_2.xml");
+    String key = CoverageCache.contentKey(report, false);
+    AnalysisCache cache = new AnalysisCache(store);
+    assertThat(cache.replay(key, new RecordingHandler())).isFalse();
+
+    RecordingHandler parsed = new RecordingHandler();
+    CoverageCache.Recorder recorder = cache.recorder(key, parsed);
+    new CloverByteScanner(recorder).scan(report);
+    recorder.commit();
+
+    InMemoryStore nextStore = store.nextAnalysis();
+    RecordingHandler replayed = new RecordingHandler();
+    assertThat(new AnalysisCache(nextStore).replay(key, replayed)).isTrue();
+    assertThat(replayed.events).hasSize(parsed.events.size());
+    assertThat(replayed.events).containsOnly(parsed.events.toArray());
+    // replayed entries are kept for the analysis after
+    assertThat(nextStore.next.keySet()).containsOnly("clover:" + key);
+  }
+
+  @Test
+  public void should_write_each_entry_once() throws Exception {
+    InMemoryStore store = new InMemoryStore();
+    AnalysisCache cache = new AnalysisCache(store);
+    cache.recorder("key", new RecordingHandler()).commit();
+    cache.recorder("key", new RecordingHandler()).commit();
+
+    AnalysisCache nextCache = new AnalysisCache(store.nextAnalysis());
+    assertThat(nextCache.replay("key", new RecordingHandler())).isTrue();
+    assertThat(nextCache.replay("key", new RecordingHandler())).isTrue();
+  }
+
+  @Test
+  public void should_not_keep_aborted_reports() throws Exception {
+    InMemoryStore store = new InMemoryStore();
+    new AnalysisCache(store).recorder("key", new RecordingHandler()).abort();
+
+    assertThat(store.next).isEmpty();
+  }
+
+  @Test
+  public void should_write_each_entry_once_for_stores_of_all_modules() throws Exception {
+    InMemoryStore store = new InMemoryStore();
+    WeakReference<InMemoryStore> firstModuleStore = new WeakReference<>(store.otherModule());
+    new AnalysisCache(firstModuleStore.get()).recorder("key", new RecordingHandler()).commit();
+    // the store of the first module goes away with its sensor
+    while (firstModuleStore.get() != null) {
+      System.gc();
+    }
+
+    new AnalysisCache(store.otherModule()).recorder("key", new RecordingHandler()).commit();
+    assertThat(store.next.keySet()).containsOnly("clover:key");
+  }
+
+  /**
+   * The caches of the server, which fail like them when an entry is written twice.
+   */
+  static class InMemoryStore implements AnalysisCache.Store {
+
+    final Map<String, byte[]> previous;
+    final Map<String, byte[]> next;
+    // the identity of the next cache, the maps being equal by content
+    private final Object nextCache;
+
+    InMemoryStore() {
+      this(new HashMap<>(), new HashMap<>(), new Object());
+    }
+
+    private InMemoryStore(Map<String, byte[]> previous, Map<String, byte[]> next, Object nextCache) {
+      this.previous = previous;
+      this.next = next;
+      this.nextCache = nextCache;
+    }
+
+    InMemoryStore nextAnalysis() {
+      return new InMemoryStore(next, new HashMap<>(), new Object());
+    }
+
+    /**
+     * @return another store of the same caches, as given to the sensor of another module
+     */
+    InMemoryStore otherModule() {
+      return new InMemoryStore(previous, next, nextCache);
+    }
+
+    @Override
+    public Object nextCache() {
+      return nextCache;
+    }
+
+    @Override
+    public InputStream read(String key) {
+      byte[] data = previous.get(key);
+      return data == null ? null : new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public void write(String key, byte[] data) {
+      if (next.putIfAbsent(key, data) != null) {
+        throw new IllegalArgumentException("Cache already contains key " + key);
+      }
+    }
+
+    @Override
+    public void copyFromPrevious(String key) {
+      write(key, previous.get(key));
+    }
+  }
+}
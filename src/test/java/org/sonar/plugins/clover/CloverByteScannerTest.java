@@ -0,0 +1,294 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CloverByteScannerTest {
+
+  private static final String[] REPORTS = {
+    "clover_2_3_2.xml", "clover_2_6_0.xml", "clover_3_2_2.xml", "clover_4_1_1.xml", "coverageShouldBeZeroWhenNoElements/clover.xml"};
+
+  private static final ReadOptions TESTS = new ReadOptions(true, false);
+  private static final ReadOptions FILE_METRICS_ONLY = new ReadOptions(false, true);
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_read_same_data_as_stax_parser() throws Exception {
+    for (String report : REPORTS) {
+      File file = TestUtils.getResource(CloverXmlReportParserTest.class, report);
+      RecordingHandler expected = new RecordingHandler();
+      CloverXmlReportParser.createStaxParser(expected).parse(file);
+
+      for (int windowSize : new int[] {7, 4096, 1 << 30}) {
+        RecordingHandler actual = new RecordingHandler();
+        new CloverByteScanner(actual, windowSize).scan(file);
+        assertThat(actual.events).as(report + " with windows of " + windowSize + " bytes").isEqualTo(expected.events);
+      }
+    }
+  }
+
+  @Test
+  public void should_read_tests_same_as_stax_parser() throws Exception {
+    for (String report : REPORTS) {
+      File file = TestUtils.getResource(CloverXmlReportParserTest.class, report);
+      RecordingHandler expected = new RecordingHandler();
+      CloverXmlReportParser.createStaxParser(expected, TESTS).parse(file);
+
+      RecordingHandler actual = new RecordingHandler();
+      new CloverByteScanner(actual, 7, TESTS).scan(file);
+      assertThat(actual.events).as(report).isEqualTo(expected.events);
+    }
+    RecordingHandler handler = new RecordingHandler();
+    new CloverByteScanner(handler, TESTS).scan(TestUtils.getResource(CloverXmlReportParserTest.class, "clover_2_6_0.xml"));
+    assertThat(handler.events.subList(handler.events.indexOf("tests"), handler.events.indexOf("tests") + 2)).containsExactly("tests",
+      "start /Users/simon/projects/sonar/trunk/tests/integration/reference-projects/reference/src/test/java/org/sonar/samples/ClassUnderTestTest.java");
+  }
+
+  @Test
+  public void should_read_file_metrics_same_as_stax_parser() throws Exception {
+    for (String report : REPORTS) {
+      File file = TestUtils.getResource(CloverXmlReportParserTest.class, report);
+      RecordingHandler expected = new RecordingHandler();
+      CloverXmlReportParser.createStaxParser(expected, FILE_METRICS_ONLY).parse(file);
+
+      for (int windowSize : new int[] {7, 1 << 30}) {
+        RecordingHandler actual = new RecordingHandler();
+        new CloverByteScanner(actual, windowSize, FILE_METRICS_ONLY).scan(file);
+        assertThat(actual.events).as(report + " with windows of " + windowSize + " bytes").isEqualTo(expected.events);
+      }
+    }
+    RecordingHandler handler = new RecordingHandler();
+    new CloverByteScanner(handler, new ReadOptions(true, true)).scan(TestUtils.getResource(CloverXmlReportParserTest.class, "clover_3_2_2.xml"));
+    assertThat(handler.events).containsExactly(
+      "start /home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java", "metrics true", "totals 6 4 4 3", "end",
+      "tests", "start /home/benzonico/Development/SonarSource/clover-sample/src/test/java/SampleClassTest.java", "metrics true", "totals 2 2 0 0", "end");
+  }
+
+  @Test
+  public void should_skip_content_of_files_when_reading_their_metrics_only() throws Exception {
+    File report = write("<coverage><project><metrics/><package><metrics/>"
+      + "<file path=\"/src/A.java\"><metrics elements=\"3\" statements=\"\" coveredstatements=\"2\"/><line num=\"x\"/><files/></file >"
+      + "<file path=\"/src/B.java\"><metrics elements=\"0\"></metrics><line num=\"1\" count=\"1\"/></file>"
+      + "</package></project></coverage>", StandardCharsets.UTF_8);
+
+    RecordingHandler handler = new RecordingHandler();
+    new CloverByteScanner(handler, 5, FILE_METRICS_ONLY).scan(report);
+
+    assertThat(handler.events).containsExactly(
+      "start /src/A.java", "metrics true", "totals 0 2 0 0", "end",
+      "start /src/B.java", "metrics false", "totals 0 0 0 0", "end");
+  }
+
+  @Test
+  public void should_index_packages_of_tests() throws Exception {
+    File file = TestUtils.getResource(CloverXmlReportParserTest.class, "clover_2_6_0.xml");
+    RecordingHandler expected = new RecordingHandler();
+    new CloverByteScanner(expected, TESTS).scan(file);
+
+    CloverByteScanner.PackageIndex index = new CloverByteScanner(new RecordingHandler(), TESTS).indexPackages(file);
+    RecordingHandler actual = new RecordingHandler();
+    for (int i = 0; i < index.size(); i++) {
+      if (index.isTests(i) && !index.isTests(i - 1)) {
+        actual.startTests();
+      }
+      new CloverByteScanner(actual).scanPackages(file, index, i, i);
+    }
+    assertThat(index.isTests(0)).isFalse();
+    assertThat(index.isTests(index.size() - 1)).isTrue();
+    assertThat(actual.events).isEqualTo(expected.events);
+  }
+
+  @Test
+  public void should_index_packages_without_reading_their_content() throws Exception {
+    // the unquoted attribute would fail the reading of the package
+    File report = write("<coverage><project><metrics/>"
+      + "<package name=\"a\"><metrics/><file path=\"/src/A.java\"><line num=4 count=1/></file></package>"
+      + "<package name=\"b\"><metrics/></package>"
+      + "</project></coverage>", StandardCharsets.UTF_8);
+
+    CloverByteScanner.PackageIndex index = new CloverByteScanner(new RecordingHandler()).indexPackages(report);
+    assertThat(index.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void should_read_packages_separately() throws Exception {
+    for (String report : REPORTS) {
+      File file = TestUtils.getResource(CloverXmlReportParserTest.class, report);
+      RecordingHandler expected = new RecordingHandler();
+      new CloverByteScanner(expected).scan(file);
+
+      CloverByteScanner.PackageIndex index = new CloverByteScanner(new RecordingHandler()).indexPackages(file);
+      RecordingHandler actual = new RecordingHandler();
+      for (int i = 0; i < index.size(); i++) {
+        new CloverByteScanner(actual, 7).scanPackages(file, index, i, i);
+      }
+      assertThat(actual.events).as(report).isEqualTo(expected.events);
+
+      if (index.size() > 0) {
+        RecordingHandler all = new RecordingHandler();
+        new CloverByteScanner(all).scanPackages(file, index, 0, index.size() - 1);
+        assertThat(all.events).as(report).isEqualTo(expected.events);
+      }
+    }
+  }
+
+  @Test
+  public void should_decode_entities_in_paths() throws Exception {
+    File report = write("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n"
+      + "<!-- generated -- by -> test -->\n"
+      + "<coverage><project><metrics/>"
+      + "<package><metrics/><file path=\"/src/A&amp;B&#x20;&u00e9;\u00e9.java\"><metrics elements=\"1\"/><line num=\"3\" count=\"\" truecount=\"1\" falsecount=\"0\"/></file></package>"
+      + "</project></coverage>", StandardCharsets.ISO_8859_1);
+
+    RecordingHandler handler = new RecordingHandler();
+    new CloverByteScanner(handler).scan(report);
+
+    assertThat(handler.events).containsExactly("start /src/A&B \u00e9\u00e9.java", "metrics true", "conditions 3 1 0", "end");
+  }
+
+  @Test
+  public void should_skip_bytes_of_rejected_files() throws Exception {
+    File report = write("<coverage><project><metrics/><package><metrics/>"
+      + "<file path=\"/other/A.java\"><metrics elements=\"1\"/><line num=\"x\"/><file-like/></file>"
+      + "<file path=\"/other/B.java\"/>"
+      + "<file path=\"/src/C.java\"><metrics elements=\"1\"/><line num=\"2\" count=\"3\"/></file>"
+      + "</package></project></coverage>", StandardCharsets.UTF_8);
+    RecordingHandler handler = new RecordingHandler() {
+      @Override
+      public boolean startFile(String path) {
+        super.startFile(path);
+        return path.startsWith("/src/");
+      }
+    };
+    new CloverByteScanner(handler, 3).scan(report);
+
+    assertThat(handler.events).containsExactly("start /other/A.java", "start /other/B.java", "start /src/C.java", "metrics true", "hits 2 3", "end");
+  }
+
+  @Test
+  public void should_skip_rejected_packages_same_as_stax_parser() throws Exception {
+    File report = write("<coverage><project><metrics/>"
+      + "<package name=\"org.generated\"><metrics/><file path=\"/src/org/generated/A.java\"><metrics elements=\"1\"/><line num=\"x\"/></file></package>"
+      + "<package name=\"org\"><metrics/><file path=\"/src/org/B.java\"><metrics elements=\"1\"/><line num=\"2\" count=\"3\"/></file></package>"
+      + "</project></coverage>", StandardCharsets.UTF_8);
+    RecordingHandler expected = new RejectingHandler();
+    CloverXmlReportParser.createStaxParser(expected).parse(report);
+    RecordingHandler actual = new RejectingHandler();
+    new CloverByteScanner(actual, 3).scan(report);
+
+    assertThat(expected.events).containsExactly("package org.generated", "package org", "start /src/org/B.java", "metrics true", "hits 2 3", "end");
+    assertThat(actual.events).isEqualTo(expected.events);
+  }
+
+  @Test
+  public void should_skip_content_of_rejected_files() throws Exception {
+    RecordingHandler handler = new RecordingHandler() {
+      @Override
+      public boolean startFile(String path) {
+        super.startFile(path);
+        return false;
+      }
+    };
+    new CloverByteScanner(handler).scan(TestUtils.getResource(CloverXmlReportParserTest.class, "clover_4_1_1.xml"));
+
+    assertThat(handler.events).containsExactly(
+      "start /clover-examples/parameterized-junit4-example/src/test/java/Square.java",
+      "start /clover-examples/parameterized-junit4-example/src/test/java/Omit.java");
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void should_fail_on_report_without_project() throws Exception {
+    new CloverByteScanner(new RecordingHandler()).scan(TestUtils.getResource(CloverXmlReportParserTest.class, "bad_clover.xml"));
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void should_fail_on_truncated_report() throws Exception {
+    File report = write("<coverage><project><metrics/><package><metrics/><file path=\"A.java\"><metrics elements=\"1\"/><line num=", StandardCharsets.UTF_8);
+    new CloverByteScanner(new RecordingHandler()).scan(report);
+  }
+
+  private File write(String content, java.nio.charset.Charset charset) throws Exception {
+    File report = temp.newFile();
+    Files.write(report.toPath(), content.getBytes(charset));
+    return report;
+  }
+
+  private static class RejectingHandler extends RecordingHandler {
+    @Override
+    public boolean acceptsPackage(String name) {
+      events.add("package " + name);
+      return !name.endsWith("generated");
+    }
+  }
+
+  static class RecordingHandler implements CloverReportHandler {
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public boolean startFile(String path) {
+      events.add("start " + path);
+      return true;
+    }
+
+    @Override
+    public void fileMetrics(boolean hasElements) {
+      events.add("metrics " + hasElements);
+    }
+
+    @Override
+    public void lineHits(int line, int hits) {
+      events.add("hits " + line + " " + hits);
+    }
+
+    @Override
+    public void conditions(int line, int trueCount, int falseCount) {
+      events.add("conditions " + line + " " + trueCount + " " + falseCount);
+    }
+
+    @Override
+    public void endFile() {
+      events.add("end");
+    }
+
+    @Override
+    public void fileTotals(int statements, int coveredStatements, int conditionals, int coveredConditionals) {
+      events.add("totals " + statements + " " + coveredStatements + " " + conditionals + " " + coveredConditionals);
+    }
+
+    @Override
+    public void startTests() {
+      events.add("tests");
+    }
+  }
+}
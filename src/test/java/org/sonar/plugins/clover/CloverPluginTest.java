@@ -35,6 +35,6 @@ public class CloverPluginTest {
             Version.parse("6.7.4"),
             SonarQubeSide.SCANNER));
     new CloverPlugin().define(context);
-    assertThat(context.getExtensions()).hasSize(1);
+    assertThat(context.getExtensions()).hasSize(2);
   }
 }
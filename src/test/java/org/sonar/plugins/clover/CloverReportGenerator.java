@@ -0,0 +1,208 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Writes Clover reports of any size, always the same for the same settings, in the layouts of the Clover versions of
+ * the test resources. Each file has classes, a method and statements with known hits, and conditions spread over its lines.
+ * Unmatched files are written after the others in each package, under a directory which is not part of the project.
+ */
+class CloverReportGenerator {
+
+  enum Layout {
+    CLOVER_2_3_2("2.3.2", false),
+    CLOVER_2_6_0("2.6.0", false),
+    CLOVER_3_2_2("3.2.2", true),
+    CLOVER_4_1_1("4.1.1", true);
+
+    private final String version;
+    private final boolean testProject;
+
+    Layout(String version, boolean testProject) {
+      this.version = version;
+      this.testProject = testProject;
+    }
+  }
+
+  static final String UNMATCHED_DIRECTORY = "/elsewhere/";
+
+  private final String baseDir;
+  private Layout layout = Layout.CLOVER_4_1_1;
+  private int packages = 1;
+  private int filesPerPackage = 1;
+  private int unmatchedFilesPerPackage;
+  private int linesPerFile = 10;
+  private int conditionsPerFile;
+  private int classesPerFile = 1;
+
+  /**
+   * @param baseDir the directory of the project, which prefixes the paths of the matched files
+   */
+  CloverReportGenerator(String baseDir) {
+    this.baseDir = baseDir.endsWith("/") ? baseDir : (baseDir + "/");
+  }
+
+  CloverReportGenerator layout(Layout layout) {
+    this.layout = layout;
+    return this;
+  }
+
+  CloverReportGenerator packages(int packages) {
+    this.packages = packages;
+    return this;
+  }
+
+  CloverReportGenerator filesPerPackage(int files) {
+    this.filesPerPackage = files;
+    return this;
+  }
+
+  CloverReportGenerator unmatchedFilesPerPackage(int files) {
+    this.unmatchedFilesPerPackage = files;
+    return this;
+  }
+
+  CloverReportGenerator linesPerFile(int lines) {
+    this.linesPerFile = lines;
+    return this;
+  }
+
+  CloverReportGenerator conditionsPerFile(int conditions) {
+    this.conditionsPerFile = conditions;
+    return this;
+  }
+
+  CloverReportGenerator classesPerFile(int classes) {
+    this.classesPerFile = classes;
+    return this;
+  }
+
+  /**
+   * @return the path of a matched file, relative to the base directory
+   */
+  static String relativePath(int packageIndex, int fileIndex) {
+    return "src/main/java/gen/p" + packageIndex + "/File" + fileIndex + ".java";
+  }
+
+  /**
+   * @return the hits of a statement of a matched file
+   */
+  static int hits(int fileIndex, int line) {
+    return (fileIndex + line) % 7;
+  }
+
+  /**
+   * @return the line of a condition of a file
+   */
+  int conditionLine(int condition) {
+    return 1 + (int) ((long) condition * linesPerFile / Math.max(1, conditionsPerFile));
+  }
+
+  void write(File report) throws IOException {
+    try (Writer writer = new BufferedWriter(Files.newBufferedWriter(report.toPath(), StandardCharsets.UTF_8), 1 << 16)) {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      writer.write("<coverage generated=\"1500000000000\" clover=\"" + layout.version + "\">\n");
+      writer.write("  <project timestamp=\"1500000000000\" name=\"generated\">\n");
+      writer.write("    <metrics files=\"" + ((long) packages * (filesPerPackage + unmatchedFilesPerPackage)) + "\" packages=\"" + packages + "\"/>\n");
+      for (int p = 0; p < packages; p++) {
+        writer.write("    <package name=\"gen.p" + p + "\">\n");
+        writer.write("      <metrics files=\"" + (filesPerPackage + unmatchedFilesPerPackage) + "\"/>\n");
+        for (int f = 0; f < filesPerPackage + unmatchedFilesPerPackage; f++) {
+          String path = f < filesPerPackage ? (baseDir + relativePath(p, f)) : (UNMATCHED_DIRECTORY + relativePath(p, f));
+          writeFile(writer, path, f);
+        }
+        writer.write("    </package>\n");
+      }
+      writer.write("  </project>\n");
+      if (layout.testProject) {
+        writer.write("  <testproject timestamp=\"1500000000000\" name=\"generated\">\n");
+        writer.write("    <metrics files=\"0\"/>\n");
+        writer.write("  </testproject>\n");
+      }
+      writer.write("</coverage>\n");
+    }
+  }
+
+  private void writeFile(Writer writer, String path, int fileIndex) throws IOException {
+    if (layout == Layout.CLOVER_2_6_0) {
+      writer.write("      <file\n          path=\"" + path + "\"\n          name=\"File" + fileIndex + ".java\">\n");
+    } else {
+      writer.write("      <file path=\"" + path + "\" name=\"File" + fileIndex + ".java\">\n");
+    }
+    String metrics = "statements=\"" + linesPerFile + "\" conditionals=\"" + (2 * conditionsPerFile) + "\" elements=\""
+      + (linesPerFile + 2 * conditionsPerFile) + "\"";
+    writer.write("        <metrics " + metrics + "/>\n");
+    for (int c = 0; c < classesPerFile; c++) {
+      writer.write("        <class name=\"File" + fileIndex + "C" + c + "\">\n          <metrics " + metrics + "/>\n        </class>\n");
+    }
+    int condition = 0;
+    for (int line = 1; line <= linesPerFile; line++) {
+      writeStatement(writer, line, hits(fileIndex, line));
+      while (condition < conditionsPerFile && conditionLine(condition) == line) {
+        writeCondition(writer, line, condition % 3, (condition + 1) % 2);
+        condition++;
+      }
+    }
+    writer.write("      </file>\n");
+  }
+
+  private void writeStatement(Writer writer, int line, int count) throws IOException {
+    // the first line of each file is a method
+    String signature = "signature=\"m" + line + "() : void\"";
+    switch (layout) {
+      case CLOVER_3_2_2:
+        writer.write(line == 1
+          ? ("        <line num=\"" + line + "\" count=\"" + count + "\" visibility=\"public\" complexity=\"1\" type=\"method\" " + signature + "/>\n")
+          : ("        <line num=\"" + line + "\" count=\"" + count + "\" type=\"stmt\"/>\n"));
+        break;
+      case CLOVER_4_1_1:
+        writer.write(line == 1
+          ? ("        <line complexity=\"1\" visibility=\"public\" " + signature + " num=\"" + line + "\" count=\"" + count + "\" type=\"method\"/>\n")
+          : ("        <line num=\"" + line + "\" count=\"" + count + "\" type=\"stmt\"/>\n"));
+        break;
+      default:
+        writer.write(line == 1
+          ? ("        <line num=\"" + line + "\" " + signature + " type=\"method\" complexity=\"1\" count=\"" + count + "\"/>\n")
+          : ("        <line num=\"" + line + "\" type=\"stmt\" count=\"" + count + "\"/>\n"));
+        break;
+    }
+  }
+
+  private void writeCondition(Writer writer, int line, int trueCount, int falseCount) throws IOException {
+    switch (layout) {
+      case CLOVER_3_2_2:
+        writer.write("        <line num=\"" + line + "\" falsecount=\"" + falseCount + "\" type=\"cond\" truecount=\"" + trueCount + "\"/>\n");
+        break;
+      case CLOVER_4_1_1:
+        writer.write("        <line num=\"" + line + "\" truecount=\"" + trueCount + "\" falsecount=\"" + falseCount + "\" type=\"cond\"/>\n");
+        break;
+      default:
+        writer.write("        <line num=\"" + line + "\" type=\"cond\" truecount=\"" + trueCount + "\" falsecount=\"" + falseCount + "\"/>\n");
+        break;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CloverReportGeneratorTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_generate_reports_read_the_same_way_by_both_parsers() throws Exception {
+    for (CloverReportGenerator.Layout layout : CloverReportGenerator.Layout.values()) {
+      File report = temp.newFile();
+      new CloverReportGenerator("/project").layout(layout).packages(3).filesPerPackage(4).unmatchedFilesPerPackage(2)
+        .linesPerFile(20).conditionsPerFile(30).classesPerFile(2).write(report);
+
+      CloverByteScannerTest.RecordingHandler stax = new CloverByteScannerTest.RecordingHandler();
+      CloverXmlReportParser.createStaxParser(stax).parse(report);
+      CloverByteScannerTest.RecordingHandler bytes = new CloverByteScannerTest.RecordingHandler();
+      new CloverByteScanner(bytes).scan(report);
+
+      assertThat(bytes.events).as(layout.name()).isEqualTo(stax.events);
+      assertThat(count(stax, "start /project/")).as(layout.name()).isEqualTo(3 * 4);
+      assertThat(count(stax, "start " + CloverReportGenerator.UNMATCHED_DIRECTORY)).as(layout.name()).isEqualTo(3 * 2);
+      assertThat(count(stax, "hits ")).as(layout.name()).isEqualTo(3 * 6 * 20);
+      assertThat(count(stax, "conditions ")).as(layout.name()).isEqualTo(3 * 6 * 30);
+      assertThat(stax.events).contains("start /project/" + CloverReportGenerator.relativePath(2, 3), "metrics true",
+        "hits 5 " + CloverReportGenerator.hits(3, 5));
+    }
+  }
+
+  @Test
+  public void should_generate_same_report_twice() throws Exception {
+    File first = temp.newFile();
+    File second = temp.newFile();
+    new CloverReportGenerator("/project").packages(2).filesPerPackage(3).conditionsPerFile(4).write(first);
+    new CloverReportGenerator("/project").packages(2).filesPerPackage(3).conditionsPerFile(4).write(second);
+
+    assertThat(Files.readAllBytes(second.toPath())).isEqualTo(Files.readAllBytes(first.toPath()));
+  }
+
+  private static long count(CloverByteScannerTest.RecordingHandler handler, String prefix) {
+    return handler.events.stream().filter(event -> event.startsWith(prefix)).count();
+  }
+}
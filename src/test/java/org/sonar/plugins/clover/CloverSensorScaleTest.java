@@ -0,0 +1,121 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+import org.sonar.api.config.internal.ConfigurationBridge;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.scan.filesystem.PathResolver;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.File;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Imports a generated report of 10^5 files and 10^7 lines through the sensor. Not part of the default build, run it
+ * with: ./mvnw test -Pscale-tests. The sizes and the parser can be changed with the clover.scale.* system properties.
+ * Wall time, throughput and peak heap are logged and written to target/scale-test-&lt;parser&gt;.json.
+ */
+public class CloverSensorScaleTest {
+
+  private static final Logger LOG = Loggers.get(CloverSensorScaleTest.class);
+  private static final int PACKAGES = Integer.getInteger("clover.scale.packages", 100);
+  private static final int FILES_PER_PACKAGE = Integer.getInteger("clover.scale.filesPerPackage", 1_000);
+  private static final int UNMATCHED_FILES_PER_PACKAGE = Integer.getInteger("clover.scale.unmatchedFilesPerPackage", 10);
+  private static final int LINES_PER_FILE = Integer.getInteger("clover.scale.linesPerFile", 100);
+  private static final int CONDITIONS_PER_FILE = Integer.getInteger("clover.scale.conditionsPerFile", 10);
+  private static final String PARSER = System.getProperty("clover.scale.parser", CloverXmlReportParser.STAX_PARSER);
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_import_large_report() throws Exception {
+    final File baseDir = temp.newFolder();
+    final SensorContextTester context = SensorContextTester.create(baseDir);
+    final DefaultFileSystem fs = context.fileSystem();
+    for (int p = 0; p < PACKAGES; p++) {
+      for (int f = 0; f < FILES_PER_PACKAGE; f++) {
+        fs.add(new TestInputFileBuilder("", CloverReportGenerator.relativePath(p, f)).setModuleBaseDir(baseDir.toPath())
+          .setLines(LINES_PER_FILE + 1).build());
+      }
+    }
+    final File report = temp.newFile("clover.xml");
+    new CloverReportGenerator(baseDir.getAbsolutePath()).layout(CloverReportGenerator.Layout.CLOVER_4_1_1)
+      .packages(PACKAGES).filesPerPackage(FILES_PER_PACKAGE).unmatchedFilesPerPackage(UNMATCHED_FILES_PER_PACKAGE)
+      .linesPerFile(LINES_PER_FILE).conditionsPerFile(CONDITIONS_PER_FILE).classesPerFile(1).write(report);
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.REPORT_PATH_PROPERTY, report.getAbsolutePath());
+    settings.setProperty(CloverSensor.PARSER_PROPERTY, PARSER);
+    context.setSettings(settings);
+
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      pool.resetPeakUsage();
+    }
+    final long start = System.nanoTime();
+    new CloverSensor(new ConfigurationBridge(settings), fs, new PathResolver()).execute(context);
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    final long peakHeap = ManagementFactory.getMemoryPoolMXBeans().stream()
+      .filter(pool -> pool.getType() == MemoryType.HEAP)
+      .mapToLong(pool -> pool.getPeakUsage().getUsed())
+      .sum();
+
+    final long files = (long) PACKAGES * FILES_PER_PACKAGE;
+    final long lines = files * LINES_PER_FILE;
+    final double megabytes = report.length() / (1024.0 * 1024.0);
+    LOG.info("Imported {} files, {} lines, {} MB with the {} parser in {} s: {} MB/s, {} files/s, {} lines/s, peak heap {} MB",
+      files, lines, String.format("%.1f", megabytes), PARSER, String.format("%.2f", seconds), String.format("%.1f", megabytes / seconds),
+      Math.round(files / seconds), Math.round(lines / seconds), peakHeap / (1024 * 1024));
+    try (Writer writer = Files.newBufferedWriter(new File("target/scale-test-" + PARSER + ".json").toPath(), StandardCharsets.UTF_8);
+      JsonWriter json = new JsonWriter(writer)) {
+      json.beginObject()
+        .name("parser").value(PARSER)
+        .name("files").value(files)
+        .name("lines").value(lines)
+        .name("reportBytes").value(report.length())
+        .name("wallTimeSeconds").value(seconds)
+        .name("megabytesPerSecond").value(megabytes / seconds)
+        .name("filesPerSecond").value(files / seconds)
+        .name("linesPerSecond").value(lines / seconds)
+        .name("peakHeapBytes").value(peakHeap)
+        .endObject();
+    }
+
+    final int lastPackage = PACKAGES - 1;
+    final int lastFile = FILES_PER_PACKAGE - 1;
+    final String key = ":" + CloverReportGenerator.relativePath(lastPackage, lastFile);
+    assertThat(context.lineHits(key, LINES_PER_FILE)).isEqualTo(CloverReportGenerator.hits(lastFile, LINES_PER_FILE));
+    assertThat(context.lineHits(":" + CloverReportGenerator.relativePath(0, 0), 2)).isEqualTo(CloverReportGenerator.hits(0, 2));
+  }
+}
@@ -86,4 +86,20 @@ public class CloverSensorTest {
     assertThat(logTester.logs(LoggerLevel.INFO)).contains("Parsing " + cloverFile.getCanonicalPath());
     assertThat(logTester.logs(LoggerLevel.WARN).stream().anyMatch(s -> s.contains("14 files in Clover report did not match any file in SonarQube Index"))).isEqualTo(true);
   }
+
+  @Test
+  public void should_process_reports_matching_glob_pattern() throws Exception {
+    final File reportDir = new File(context.fileSystem().baseDir(), "org/sonar/plugins/clover/CloverXmlReportParserTest");
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.REPORT_PATHS_PROPERTY, "org/sonar/plugins/clover/CloverXmlReportParserTest/clover_2_*.xml");
+
+    final CloverSensor sensor = new CloverSensor(new ConfigurationBridge(settings), context.fileSystem(), new PathResolver());
+
+    sensor.execute(context);
+
+    assertThat(logTester.logs(LoggerLevel.INFO)).contains(
+      "Parsing " + new File(reportDir, "clover_2_3_2.xml").getCanonicalPath(),
+      "Parsing " + new File(reportDir, "clover_2_6_0.xml").getCanonicalPath());
+    assertThat(logTester.logs(LoggerLevel.INFO).stream().noneMatch(s -> s.contains("clover_3_2_2.xml"))).isEqualTo(true);
+  }
 }
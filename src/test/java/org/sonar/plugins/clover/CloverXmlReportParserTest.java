@@ -23,19 +23,42 @@ import org.apache.commons.lang.StringUtils;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.SonarQubeSide;
+import org.sonar.api.internal.SonarRuntimeImpl;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
 import org.sonar.api.batch.sensor.internal.SensorContextTester;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.log.LogTester;
+import org.sonar.api.utils.log.LoggerLevel;
 
 import java.io.File;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import static org.fest.assertions.Assertions.assertThat;
 
 public class CloverXmlReportParserTest {
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public LogTester logTester = new LogTester();
+
   private CloverXmlReportParser reportParser;
   private SensorContextTester context = SensorContextTester.create(new File("src/test/resources/"));
   private InputFileProvider provider;
@@ -46,7 +69,7 @@ public class CloverXmlReportParserTest {
     provider = new InputFileProvider(null) {
       @Override
       public InputFile fromPath(String path) {
-        return new TestInputFileBuilder("", path).setLines(1_000).build();
+        return new TestInputFileBuilder("", path).setLines(10_000).build();
       }
     };
 
@@ -109,11 +132,518 @@ public class CloverXmlReportParserTest {
     assertThat(context.coveredConditions(testFileName, 1)).isNull();
   }
 
+  @Test
+  public void should_sum_coverage_of_files_found_in_several_reports() {
+    final File report = TestUtils.getResource(getClass(), "clover_4_1_1.xml");
+    reportParser.collect(Arrays.asList(report, report, TestUtils.getResource(getClass(), "clover_3_2_2.xml")));
+
+    final String testFileName = ":/clover-examples/parameterized-junit4-example/src/test/java/Square.java";
+    assertThat(context.lineHits(testFileName, 6)).isEqualTo(24);
+
+    final String otherFileName = ":/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java";
+    assertThat(context.lineHits(otherFileName, 6)).isEqualTo(1);
+    assertThat(context.conditions(otherFileName, 6)).isEqualTo(2);
+    assertThat(context.coveredConditions(otherFileName, 6)).isEqualTo(1);
+  }
+
+  @Test
+  public void should_sum_coverage_of_several_reports_spilled_to_disk() throws Exception {
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.MERGE_MEMORY_BUDGET_PROPERTY, 0);
+    context.setSettings(settings);
+    context.fileSystem().setWorkDir(temp.newFolder().toPath());
+    final File report = TestUtils.getResource(getClass(), "clover_4_1_1.xml");
+    new CloverXmlReportParser(context, provider).collect(Arrays.asList(report, report, TestUtils.getResource(getClass(), "clover_3_2_2.xml")));
+
+    assertThat(logTester.logs(LoggerLevel.INFO).stream().anyMatch(log -> log.endsWith("runs spilled to disk"))).isTrue();
+    assertThat(context.lineHits(":/clover-examples/parameterized-junit4-example/src/test/java/Square.java", 6)).isEqualTo(24);
+    final String otherFileName = ":/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java";
+    assertThat(context.lineHits(otherFileName, 6)).isEqualTo(1);
+    assertThat(context.conditions(otherFileName, 6)).isEqualTo(2);
+    assertThat(context.coveredConditions(otherFileName, 6)).isEqualTo(1);
+    assertThat(context.fileSystem().workDir().listFiles()).isEmpty();
+  }
+
+  @Test
+  public void should_remap_report_paths() {
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.PATH_MAPPINGS_PROPERTY, "/clover-examples/parameterized-junit4-example=/home/ci/example");
+    context.setSettings(settings);
+    new CloverXmlReportParser(context, provider).collect(TestUtils.getResource(getClass(), "clover_4_1_1.xml"));
+
+    assertThat(context.lineHits(":/home/ci/example/src/test/java/Square.java", 6)).isEqualTo(12);
+  }
+
+  @Test
+  public void should_parse_with_byte_scanner() {
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.PARSER_PROPERTY, CloverXmlReportParser.BYTES_PARSER);
+    context.setSettings(settings);
+    new CloverXmlReportParser(context, provider).collect(TestUtils.getResource(getClass(), "clover_3_2_2.xml"));
+
+    final String testFileName = ":/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java";
+    assertThat(context.lineHits(testFileName, 6)).isEqualTo(1);
+    assertThat(context.conditions(testFileName, 6)).isEqualTo(2);
+    assertThat(context.coveredConditions(testFileName, 6)).isEqualTo(1);
+  }
+
+  @Test
+  public void should_parse_packages_in_parallel() {
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.PARSER_PROPERTY, CloverXmlReportParser.BYTES_PARSER);
+    settings.setProperty(CloverSensor.PARALLELISM_PROPERTY, 4);
+    context.setSettings(settings);
+    final CloverXmlReportParser parser = new CloverXmlReportParser(context, provider);
+    parser.setParallelParsingMinSize(0);
+    parser.collect(TestUtils.getResource(getClass(), "clover_2_3_2.xml"));
+
+    final String testFileName = ":/Users/cmunger/dev/workspace/sonar/sonar-squid/src/main/java/org/sonar/squid/sensors/ASTSensor.java";
+    assertThat(context.lineHits(testFileName, 44)).isEqualTo(1);
+    assertThat(context.conditions(testFileName, 157)).isEqualTo(2);
+    assertThat(context.coveredConditions(testFileName, 157)).isEqualTo(2);
+  }
+
+  @Test
+  public void should_look_up_each_file_once_in_parallel() {
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.PARSER_PROPERTY, CloverXmlReportParser.BYTES_PARSER);
+    context.setSettings(settings);
+    final List<String> lookups = Collections.synchronizedList(new ArrayList<>());
+    final InputFileProvider countingProvider = new InputFileProvider(null) {
+      @Override
+      public InputFile fromPath(String path) {
+        lookups.add(path);
+        return path.endsWith("ASTSensor.java") ? new TestInputFileBuilder("", path).setLines(10_000).build() : null;
+      }
+    };
+    final CloverXmlReportParser parser = new CloverXmlReportParser(context, countingProvider);
+    parser.setParallelism(4);
+    parser.setParallelParsingMinSize(0);
+    parser.collect(TestUtils.getResource(getClass(), "clover_2_3_2.xml"));
+
+    assertThat(lookups).hasSize(new HashSet<>(lookups).size());
+    assertThat(context.lineHits(":/Users/cmunger/dev/workspace/sonar/sonar-squid/src/main/java/org/sonar/squid/sensors/ASTSensor.java", 44)).isEqualTo(1);
+  }
+
+  @Test
+  public void should_parse_compressed_report_with_stax_parser() throws Exception {
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.PARSER_PROPERTY, CloverXmlReportParser.BYTES_PARSER);
+    context.setSettings(settings);
+    final File report = temp.newFile("clover.xml.gz");
+    try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(report.toPath()))) {
+      Files.copy(TestUtils.getResource(getClass(), "clover_4_1_1.xml").toPath(), output);
+    }
+    new CloverXmlReportParser(context, provider).collect(report);
+
+    assertThat(context.lineHits(":/clover-examples/parameterized-junit4-example/src/test/java/Square.java", 6)).isEqualTo(12);
+  }
+
+  @Test
+  public void should_filter_out_excluded_files_and_packages() throws Exception {
+    for (String parserType : new String[] {CloverXmlReportParser.STAX_PARSER, CloverXmlReportParser.BYTES_PARSER}) {
+      final MapSettings settings = new MapSettings();
+      settings.setProperty(CloverSensor.PARSER_PROPERTY, parserType);
+      settings.setProperty(CloverSensor.EXCLUSIONS_PROPERTY, "**/default-pkg/**");
+      final SensorContextTester filteredContext = SensorContextTester.create(new File("src/test/resources/"));
+      filteredContext.setSettings(settings);
+      final CloverXmlReportParser parser = new CloverXmlReportParser(filteredContext, provider);
+      parser.setParallelParsingMinSize(0);
+      parser.collect(TestUtils.getResource(getClass(), "clover_3_2_2.xml"));
+
+      assertThat(filteredContext.lineHits(":/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java", 6)).isNull();
+      assertThat(logTester.logs(LoggerLevel.INFO).stream()
+        .anyMatch(log -> log.contains(" 0 files (") && log.endsWith(", 0 files and 1 packages filtered out"))).isTrue();
+      logTester.clear();
+    }
+
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.INCLUSIONS_PROPERTY, "src/**");
+    settings.setProperty(CloverSensor.EXCLUSIONS_PROPERTY, "**/Omit.java");
+    context.setSettings(settings);
+    new CloverXmlReportParser(context, provider).collect(TestUtils.getResource(getClass(), "clover_4_1_1.xml"));
+    assertThat(context.lineHits(":/clover-examples/parameterized-junit4-example/src/test/java/Square.java", 6)).isEqualTo(12);
+    assertThat(context.lineHits(":/clover-examples/parameterized-junit4-example/src/test/java/Omit.java", 1)).isNull();
+    assertThat(logTester.logs(LoggerLevel.INFO).stream().anyMatch(log -> log.endsWith(", 1 files and 0 packages filtered out"))).isTrue();
+  }
+
+  @Test
+  public void should_skip_same_packages_with_and_without_cache() throws Exception {
+    // the file of the excluded package is not under the directory of the package
+    final File report = temp.newFile("clover.xml");
+    Files.write(report.toPath(), ("<coverage><project><metrics/>"
+      + "<package name=\"gen.skipped\"><metrics/><file path=\"/src/Skipped.java\"><metrics elements=\"1\"/><line num=\"1\" count=\"1\"/></file></package>"
+      + "<package name=\"kept\"><metrics/><file path=\"/src/Kept.java\"><metrics elements=\"1\"/><line num=\"2\" count=\"3\"/></file></package>"
+      + "</project></coverage>").getBytes(StandardCharsets.UTF_8));
+    final InputFileProvider srcProvider = new InputFileProvider(null) {
+      @Override
+      public InputFile fromPath(String path) {
+        return new TestInputFileBuilder("", path).setLines(10).build();
+      }
+    };
+    final String cacheDir = temp.newFolder().getAbsolutePath();
+    // a run without exclusions records all the packages
+    final MapSettings unfiltered = new MapSettings();
+    unfiltered.setProperty(CloverSensor.CACHE_DIR_PROPERTY, cacheDir);
+    final SensorContextTester unfilteredContext = SensorContextTester.create(new File("src/test/resources/"));
+    unfilteredContext.setSettings(unfiltered);
+    new CloverXmlReportParser(unfilteredContext, srcProvider).collect(report);
+    assertThat(unfilteredContext.lineHits(":/src/Skipped.java", 1)).isEqualTo(1);
+
+    for (String cache : new String[] {null, cacheDir, cacheDir}) {
+      final MapSettings settings = new MapSettings();
+      settings.setProperty(CloverSensor.PARSER_PROPERTY, CloverXmlReportParser.BYTES_PARSER);
+      settings.setProperty(CloverSensor.EXCLUSIONS_PROPERTY, "**/skipped/**");
+      if (cache != null) {
+        settings.setProperty(CloverSensor.CACHE_DIR_PROPERTY, cache);
+      }
+      final SensorContextTester filteredContext = SensorContextTester.create(new File("src/test/resources/"));
+      filteredContext.setSettings(settings);
+      new CloverXmlReportParser(filteredContext, srcProvider).collect(report);
+
+      assertThat(filteredContext.lineHits(":/src/Skipped.java", 1)).as(String.valueOf(cache)).isNull();
+      assertThat(filteredContext.lineHits(":/src/Kept.java", 2)).as(String.valueOf(cache)).isEqualTo(3);
+    }
+    assertThat(logTester.logs(LoggerLevel.INFO).stream().filter(log -> log.startsWith("Coverage of clover.xml read from cache")).count()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_detect_json_reports() throws Exception {
+    final File report = temp.newFile("clover.gz");
+    try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(report.toPath()))) {
+      Files.copy(TestUtils.getResource(getClass(), "clover_3_2_2.json").toPath(), output);
+    }
+    reportParser.collect(report);
+
+    final String testFileName = ":/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java";
+    assertThat(context.lineHits(testFileName, 6)).isEqualTo(1);
+    assertThat(context.conditions(testFileName, 6)).isEqualTo(2);
+    assertThat(context.coveredConditions(testFileName, 6)).isEqualTo(1);
+  }
+
+  @Test
+  public void should_read_report_once_for_all_modules() throws Exception {
+    final SharedReports sharedReports = new SharedReports();
+    context.fileSystem().setWorkDir(temp.newFolder().toPath());
+    final File report = TestUtils.getResource(getClass(), "clover_4_1_1.xml");
+    final InputFileProvider otherModuleProvider = new InputFileProvider(null) {
+      @Override
+      public InputFile fromPath(String path) {
+        return null;
+      }
+    };
+    new CloverXmlReportParser(context, otherModuleProvider, sharedReports).collect(report);
+
+    final SensorContextTester moduleContext = SensorContextTester.create(new File("src/test/resources/"));
+    new CloverXmlReportParser(moduleContext, provider, sharedReports).collect(report);
+
+    assertThat(logTester.logs(LoggerLevel.INFO)).contains("Coverage of clover_4_1_1.xml read by a previous module");
+    final String testFileName = ":/clover-examples/parameterized-junit4-example/src/test/java/Square.java";
+    assertThat(context.lineHits(testFileName, 6)).isNull();
+    assertThat(moduleContext.lineHits(testFileName, 6)).isEqualTo(12);
+  }
+
+  @Test
+  public void should_read_report_from_cache() throws Exception {
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.CACHE_DIR_PROPERTY, temp.newFolder().getAbsolutePath());
+    context.setSettings(settings);
+    final File report = TestUtils.getResource(getClass(), "clover_3_2_2.xml");
+    new CloverXmlReportParser(context, provider).collect(report);
+
+    final SensorContextTester otherContext = SensorContextTester.create(new File("src/test/resources/"));
+    otherContext.setSettings(settings);
+    new CloverXmlReportParser(otherContext, provider).collect(report);
+
+    assertThat(logTester.logs(LoggerLevel.INFO).stream().anyMatch(log -> log.startsWith("Coverage of clover_3_2_2.xml read from cache"))).isTrue();
+    final String testFileName = ":/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java";
+    assertThat(otherContext.lineHits(testFileName, 6)).isEqualTo(1);
+    assertThat(otherContext.conditions(testFileName, 6)).isEqualTo(2);
+    assertThat(otherContext.coveredConditions(testFileName, 6)).isEqualTo(1);
+  }
+
+  @Test
+  public void should_read_report_from_previous_analysis() {
+    final AnalysisCacheTest.InMemoryStore store = new AnalysisCacheTest.InMemoryStore();
+    final File report = TestUtils.getResource(getClass(), "clover_3_2_2.xml");
+    final CloverXmlReportParser firstParser = new CloverXmlReportParser(context, provider);
+    firstParser.setAnalysisCache(new AnalysisCache(store));
+    firstParser.collect(report);
+
+    final SensorContextTester nextContext = SensorContextTester.create(new File("src/test/resources/"));
+    final CloverXmlReportParser nextParser = new CloverXmlReportParser(nextContext, provider);
+    nextParser.setAnalysisCache(new AnalysisCache(store.nextAnalysis()));
+    nextParser.collect(report);
+
+    assertThat(logTester.logs(LoggerLevel.INFO)).contains("Coverage of clover_3_2_2.xml read from the previous analysis");
+    final String testFileName = ":/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java";
+    assertThat(nextContext.lineHits(testFileName, 6)).isEqualTo(1);
+    assertThat(nextContext.conditions(testFileName, 6)).isEqualTo(2);
+    assertThat(nextContext.coveredConditions(testFileName, 6)).isEqualTo(1);
+  }
+
+  @Test
+  public void should_store_report_of_several_modules_once_in_analysis_cache() {
+    final AnalysisCacheTest.InMemoryStore store = new AnalysisCacheTest.InMemoryStore();
+    final File report = TestUtils.getResource(getClass(), "clover_3_2_2.xml");
+    for (int analysis = 0; analysis < 2; analysis++) {
+      final AnalysisCacheTest.InMemoryStore analysisStore = analysis == 0 ? store : store.nextAnalysis();
+      for (int module = 0; module < 2; module++) {
+        final SensorContextTester moduleContext = SensorContextTester.create(new File("src/test/resources/"));
+        final CloverXmlReportParser moduleParser = new CloverXmlReportParser(moduleContext, provider);
+        moduleParser.setAnalysisCache(new AnalysisCache(analysisStore));
+        moduleParser.collect(report);
+
+        assertThat(moduleContext.lineHits(":/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java", 6)).isEqualTo(1);
+      }
+      assertThat(analysisStore.next).hasSize(1);
+    }
+  }
+
+  @Test
+  public void should_only_import_coverage_of_changed_files() {
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.CHANGED_FILES_ONLY_PROPERTY, true);
+    context.setSettings(settings);
+    final InputFileProvider statusProvider = new InputFileProvider(null) {
+      @Override
+      public InputFile fromPath(String path) {
+        return new TestInputFileBuilder("", path).setLines(10_000)
+          .setStatus(path.endsWith("Square.java") ? InputFile.Status.CHANGED : InputFile.Status.SAME)
+          .build();
+      }
+    };
+    new CloverXmlReportParser(context, statusProvider).collect(TestUtils.getResource(getClass(), "clover_2_3_2.xml"));
+    new CloverXmlReportParser(context, statusProvider).collect(TestUtils.getResource(getClass(), "clover_4_1_1.xml"));
+
+    assertThat(context.lineHits(":/Users/cmunger/dev/workspace/sonar/sonar-squid/src/main/java/org/sonar/squid/sensors/ASTSensor.java", 44)).isNull();
+    assertThat(context.lineHits(":/clover-examples/parameterized-junit4-example/src/test/java/Square.java", 6)).isEqualTo(12);
+  }
+
+  @Test
+  public void should_import_coverage_of_tests_in_the_same_pass() throws Exception {
+    final String mainFileName = "/Users/simon/projects/sonar/trunk/tests/integration/reference-projects/reference/src/main/java/org/sonar/samples/ClassUnderTest.java";
+    final String testFileName = "/Users/simon/projects/sonar/trunk/tests/integration/reference-projects/reference/src/test/java/org/sonar/samples/ClassUnderTestTest.java";
+    final InputFileProvider typedProvider = new InputFileProvider(null) {
+      @Override
+      public InputFile fromPath(String path) {
+        return new TestInputFileBuilder("", path).setLines(10_000)
+          .setType(path.contains("/src/test/") ? InputFile.Type.TEST : InputFile.Type.MAIN)
+          .build();
+      }
+    };
+    for (String parser : new String[] {CloverXmlReportParser.STAX_PARSER, CloverXmlReportParser.BYTES_PARSER}) {
+      final SensorContextTester testContext = SensorContextTester.create(new File("src/test/resources/"));
+      final MapSettings settings = new MapSettings();
+      settings.setProperty(CloverSensor.PARSER_PROPERTY, parser);
+      settings.setProperty(CloverSensor.TEST_PROJECT_PROPERTY, true);
+      settings.setProperty(CloverSensor.CACHE_DIR_PROPERTY, temp.newFolder().getAbsolutePath());
+      testContext.setSettings(settings);
+      final File report = TestUtils.getResource(getClass(), "clover_2_6_0.xml");
+      new CloverXmlReportParser(testContext, typedProvider).collect(report);
+      // the second import is read from the cache
+      final SensorContextTester cachedContext = SensorContextTester.create(new File("src/test/resources/"));
+      cachedContext.setSettings(settings);
+      new CloverXmlReportParser(cachedContext, typedProvider).collect(report);
+
+      for (SensorContextTester importContext : Arrays.asList(testContext, cachedContext)) {
+        assertThat(importContext.lineHits(":" + mainFileName, 4)).as(parser).isEqualTo(1);
+        assertThat(importContext.lineHits(":" + testFileName, 8)).as(parser).isEqualTo(1);
+      }
+    }
+
+    reportParser.collect(TestUtils.getResource(getClass(), "clover_2_6_0.xml"));
+    assertThat(context.lineHits(":" + mainFileName, 4)).isEqualTo(1);
+    assertThat(context.lineHits(":" + testFileName, 8)).isNull();
+  }
+
+  @Test
+  public void should_only_attribute_coverage_of_tests_to_test_files() {
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.TEST_PROJECT_PROPERTY, true);
+    context.setSettings(settings);
+    new CloverXmlReportParser(context, provider).collect(TestUtils.getResource(getClass(), "clover_2_6_0.xml"));
+
+    final String testFileName = ":/Users/simon/projects/sonar/trunk/tests/integration/reference-projects/reference/src/test/java/org/sonar/samples/ClassUnderTestTest.java";
+    assertThat(context.lineHits(testFileName, 8)).isNull();
+    assertThat(logTester.logs(LoggerLevel.WARN)).contains("Coverage of 2 files of the tests was not imported, they are not test files");
+  }
+
+  @Test
+  public void should_import_coverage_of_files_from_their_metrics() {
+    for (String parser : new String[] {CloverXmlReportParser.STAX_PARSER, CloverXmlReportParser.BYTES_PARSER}) {
+      final SensorContextTester metricsContext = SensorContextTester.create(new File("src/test/resources/"));
+      final MapSettings settings = new MapSettings();
+      settings.setProperty(CloverSensor.PARSER_PROPERTY, parser);
+      settings.setProperty(CloverSensor.FILE_METRICS_ONLY_PROPERTY, true);
+      metricsContext.setSettings(settings);
+      final File report = TestUtils.getResource(getClass(), "clover_3_2_2.xml");
+      new CloverXmlReportParser(metricsContext, provider).collect(Arrays.asList(report, report));
+
+      final String testFileName = ":/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java";
+      assertThat(metricsContext.lineHits(testFileName, 6)).as(parser).isNull();
+      assertThat(metricsContext.<Integer>measure(testFileName, CoreMetrics.LINES_TO_COVER).value()).as(parser).isEqualTo(6);
+      assertThat(metricsContext.<Integer>measure(testFileName, CoreMetrics.UNCOVERED_LINES).value()).as(parser).isEqualTo(2);
+      assertThat(metricsContext.<Integer>measure(testFileName, CoreMetrics.CONDITIONS_TO_COVER).value()).as(parser).isEqualTo(4);
+      assertThat(metricsContext.<Integer>measure(testFileName, CoreMetrics.UNCOVERED_CONDITIONS).value()).as(parser).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void should_import_coverage_of_lines_when_server_computes_coverage_of_files() {
+    final SensorContextTester metricsContext = SensorContextTester.create(new File("src/test/resources/"));
+    metricsContext.setRuntime(SonarRuntimeImpl.forSonarQube(CloverXmlReportParser.FILE_METRICS_MAX_VERSION, SonarQubeSide.SCANNER));
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.FILE_METRICS_ONLY_PROPERTY, true);
+    metricsContext.setSettings(settings);
+    new CloverXmlReportParser(metricsContext, provider).collect(TestUtils.getResource(getClass(), "clover_3_2_2.xml"));
+
+    final String testFileName = ":/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java";
+    assertThat(metricsContext.lineHits(testFileName, 6)).isNotNull();
+    assertThat(metricsContext.measure(testFileName, CoreMetrics.LINES_TO_COVER)).isNull();
+    assertThat(logTester.logs(LoggerLevel.WARN)).contains(
+      "Import of file coverage only is not supported by SonarQube 7.0, the coverage of lines is imported instead");
+  }
+
+  @Test
+  public void should_skip_content_of_unmatched_files() throws Exception {
+    final File report = temp.newFile("clover.xml");
+    Files.write(report.toPath(), ("<coverage><project><metrics/><package><metrics/>"
+      + "<file path=\"/other/Unmatched.java\"><metrics elements=\"1\"/><line num=\"invalid\" count=\"1\"/></file>"
+      + "<file path=\"/src/Matched.java\"><metrics elements=\"1\"/><line num=\"4\" count=\"2\"/></file>"
+      + "</package></project></coverage>").getBytes(StandardCharsets.UTF_8));
+    final InputFileProvider partialProvider = new InputFileProvider(null) {
+      @Override
+      public InputFile fromPath(String path) {
+        return path.startsWith("/src/") ? new TestInputFileBuilder("", path).setLines(10).build() : null;
+      }
+    };
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.PARSER_PROPERTY, CloverXmlReportParser.BYTES_PARSER);
+    settings.setProperty(CloverSensor.PARALLELISM_PROPERTY, 2);
+    context.setSettings(settings);
+    final CloverXmlReportParser parser = new CloverXmlReportParser(context, partialProvider);
+    parser.setParallelParsingMinSize(0);
+    parser.collect(report);
+
+    assertThat(context.lineHits(":/src/Matched.java", 4)).isEqualTo(2);
+    assertThat(logTester.logs(LoggerLevel.INFO)).contains("Matched files in report : 50%");
+    assertThat(logTester.logs(LoggerLevel.WARN).stream().anyMatch(log -> log.startsWith("1 files in Clover report did not match"))).isTrue();
+  }
+
+  @Test
+  public void should_summarize_the_import() throws Exception {
+    final MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.IMPORT_STATS_REPORT_PROPERTY, true);
+    context.setSettings(settings);
+    final File workDir = temp.newFolder();
+    context.fileSystem().setWorkDir(workDir.toPath());
+    final File report = reportWithFiles(3);
+    new CloverXmlReportParser(context, provider).collect(report);
+
+    assertThat(logTester.logs(LoggerLevel.INFO).stream().anyMatch(log -> log.startsWith("Clover coverage imported in ")
+      && log.contains(": 1 reports, ") && log.contains(" 3 files (") && log.contains("3 matched, 0 unmatched, 0 unchanged, 0 excluded for coverage, 3 lines, 0 conditions"))).isTrue();
+    final String json = new String(Files.readAllBytes(new File(workDir, ImportStats.REPORT_FILE_NAME).toPath()), StandardCharsets.UTF_8);
+    assertThat(json).startsWith("{\"reports\":1,\"bytes\":" + report.length() + ",\"files\":3,\"matchedFiles\":3,");
+    assertThat(json).contains("\"pathResolution\":{\"count\":3,");
+    assertThat(json).contains("\"saving\":{\"count\":3,");
+  }
+
+  @Test
+  public void should_aggregate_all_elements_of_a_line() throws Exception {
+    final File report = temp.newFile("clover.xml");
+    Files.write(report.toPath(), ("<coverage><project><metrics/><package><metrics/>"
+      + "<file path=\"/src/Lines.java\"><metrics elements=\"9\"/>"
+      + "<line num=\"8\" count=\"3\" type=\"stmt\"/>"
+      + "<line num=\"8\" truecount=\"2\" falsecount=\"0\" type=\"cond\"/>"
+      + "<line num=\"8\" truecount=\"0\" falsecount=\"0\" type=\"cond\"/>"
+      + "<line num=\"2\" count=\"1\" type=\"method\"/>"
+      + "<line num=\"8\" count=\"4\" type=\"stmt\"/>"
+      + "<line num=\"5000\" count=\"7\" type=\"stmt\"/>"
+      + "<line num=\"3\" truecount=\"1\" falsecount=\"1\" type=\"cond\"/>"
+      + "</file></package></project></coverage>").getBytes(StandardCharsets.UTF_8));
+    reportParser.collect(Arrays.asList(report, report));
+
+    final String testFileName = ":/src/Lines.java";
+    assertThat(context.lineHits(testFileName, 2)).isEqualTo(2);
+    assertThat(context.lineHits(testFileName, 8)).isEqualTo(14);
+    assertThat(context.lineHits(testFileName, 5000)).isEqualTo(14);
+    assertThat(context.conditions(testFileName, 8)).isEqualTo(4);
+    assertThat(context.coveredConditions(testFileName, 8)).isEqualTo(1);
+    assertThat(context.conditions(testFileName, 3)).isEqualTo(2);
+    assertThat(context.coveredConditions(testFileName, 3)).isEqualTo(2);
+  }
+
+  @Test
+  public void should_save_reports_larger_than_the_pipeline_queues() throws Exception {
+    final File report = reportWithFiles(5_000);
+    reportParser.collect(report);
+
+    assertThat(context.lineHits(":/src/File0.java", 1)).isEqualTo(1);
+    assertThat(context.lineHits(":/src/File4999.java", 1)).isEqualTo(1);
+  }
+
+  @Test(timeout = 10_000, expected = MessageException.class)
+  public void resolution_failure_should_stop_the_parsing() throws Exception {
+    final File report = reportWithFiles(5_000);
+    new CloverXmlReportParser(context, new InputFileProvider(null) {
+      @Override
+      public InputFile fromPath(String path) {
+        if (path.endsWith("File2000.java")) {
+          throw new IllegalStateException("Unable to resolve " + path);
+        }
+        return new TestInputFileBuilder("", path).setLines(10).build();
+      }
+    }).collect(Arrays.asList(report, report));
+  }
+
+  @Test(timeout = 10_000, expected = MessageException.class)
+  public void saving_failure_should_stop_the_parsing() throws Exception {
+    final File report = reportWithFiles(5_000);
+    new CloverXmlReportParser(context, new InputFileProvider(null) {
+      @Override
+      public InputFile fromPath(String path) {
+        // the hits of line 1 cannot be saved on an empty file
+        return new TestInputFileBuilder("", path).setLines(path.endsWith("File10.java") ? 0 : 10).build();
+      }
+    }).collect(report);
+  }
+
+  private File reportWithFiles(int count) throws Exception {
+    final StringBuilder xml = new StringBuilder("<coverage><project><metrics/><package><metrics/>");
+    for (int i = 0; i < count; i++) {
+      xml.append("<file path=\"/src/File").append(i).append(".java\"><metrics elements=\"1\"/>")
+        .append("<line num=\"1\" count=\"1\" type=\"stmt\"/></file>");
+    }
+    final File report = temp.newFile();
+    Files.write(report.toPath(), xml.append("</package></project></coverage>").toString().getBytes(StandardCharsets.UTF_8));
+    return report;
+  }
+
+  @Test(expected = MessageException.class)
+  public void bad_clover_among_several_reports_should_throw_exception() {
+    reportParser.collect(Arrays.asList(TestUtils.getResource(getClass(), "clover_4_1_1.xml"),
+      TestUtils.getResource(getClass(), "bad_clover.xml")));
+  }
+
   @Test(expected = MessageException.class)
   public void bad_clover_should_throw_exception() throws Exception {
     reportParser.collect(TestUtils.getResource(getClass(), "bad_clover.xml"));
   }
 
+  @Test(expected = MessageException.class)
+  public void truncated_report_should_fail_before_coverage_is_saved() throws Exception {
+    final byte[] content = Files.readAllBytes(TestUtils.getResource(getClass(), "clover_3_2_2.xml").toPath());
+    final File truncated = temp.newFile("clover.xml");
+    Files.write(truncated.toPath(), Arrays.copyOf(content, content.length - 20));
+    try {
+      reportParser.collect(Arrays.asList(TestUtils.getResource(getClass(), "clover_4_1_1.xml"), truncated));
+    } finally {
+      assertThat(logTester.logs(LoggerLevel.ERROR)).containsOnly("Clover report " + truncated + " is truncated: it does not end with </coverage>");
+      assertThat(context.lineHits(":/clover-examples/parameterized-junit4-example/src/test/java/Square.java", 6)).isNull();
+    }
+  }
+
   private class SonarFileMatcher extends BaseMatcher<InputFile> {
 
     private String filename;
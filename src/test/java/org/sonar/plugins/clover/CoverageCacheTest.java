@@ -0,0 +1,129 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.clover.CloverByteScannerTest.RecordingHandler;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoverageCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_replay_recorded_reports() throws Exception {
+    CoverageCache cache = new CoverageCache(temp.newFolder().toPath(), Long.MAX_VALUE);
+    for (String report : new String[] {"clover_2_3_2.xml", "clover_2_6_0.xml", "clover_3_2_2.xml", "clover_4_1_1.xml"}) {
+      File file = TestUtils.getResource(CloverXmlReportParserTest.class, report);
+      String key = cache.keyOf(file);
+      assertThat(cache.replay(key, new RecordingHandler())).isFalse();
+
+      RecordingHandler parsed = new RecordingHandler();
+      CoverageCache.Recorder recorder = cache.recorder(key, parsed);
+      new CloverByteScanner(recorder).scan(file);
+      recorder.commit();
+
+      RecordingHandler replayed = new RecordingHandler();
+      assertThat(cache.replay(key, replayed)).isTrue();
+      assertThat(sorted(replayed.events)).as(report).isEqualTo(sorted(parsed.events));
+    }
+  }
+
+  @Test
+  public void should_record_files_rejected_by_the_handler() throws Exception {
+    CoverageCache cache = new CoverageCache(temp.newFolder().toPath(), Long.MAX_VALUE);
+    File file = TestUtils.getResource(CloverXmlReportParserTest.class, "clover_4_1_1.xml");
+    String key = cache.keyOf(file);
+    RecordingHandler rejecting = new RecordingHandler() {
+      @Override
+      public boolean startFile(String path) {
+        super.startFile(path);
+        return false;
+      }
+    };
+    CoverageCache.Recorder recorder = cache.recorder(key, rejecting);
+    new CloverByteScanner(recorder).scan(file);
+    recorder.commit();
+
+    RecordingHandler replayed = new RecordingHandler();
+    cache.replay(key, replayed);
+    assertThat(rejecting.events).hasSize(2);
+    assertThat(replayed.events).contains("hits 6 12");
+  }
+
+  @Test
+  public void should_evict_least_recently_used_entries() throws Exception {
+    Path directory = temp.newFolder().toPath();
+    File first = TestUtils.getResource(CloverXmlReportParserTest.class, "clover_3_2_2.xml");
+    File second = TestUtils.getResource(CloverXmlReportParserTest.class, "clover_4_1_1.xml");
+    CoverageCache unbounded = new CoverageCache(directory, Long.MAX_VALUE);
+    record(unbounded, first);
+    record(unbounded, second);
+    Path firstEntry = directory.resolve(unbounded.keyOf(first) + ".bin");
+    Path secondEntry = directory.resolve(unbounded.keyOf(second) + ".bin");
+    Files.setLastModifiedTime(firstEntry, FileTime.fromMillis(0));
+
+    CoverageCache cache = new CoverageCache(directory, Math.max(Files.size(firstEntry), Files.size(secondEntry)));
+    record(cache, second);
+
+    assertThat(cache.replay(cache.keyOf(first), new RecordingHandler())).isFalse();
+    assertThat(cache.replay(cache.keyOf(second), new RecordingHandler())).isTrue();
+  }
+
+  @Test
+  public void should_delete_stale_temporary_files_when_opened() throws Exception {
+    Path directory = temp.newFolder().toPath();
+    Path stale = Files.createFile(directory.resolve("stale.tmp"));
+    Files.setLastModifiedTime(stale, FileTime.fromMillis(0));
+    Path recent = Files.createFile(directory.resolve("recent.tmp"));
+    Path entry = Files.createFile(directory.resolve("entry.bin"));
+    Files.setLastModifiedTime(entry, FileTime.fromMillis(0));
+
+    CoverageCache.open(directory, Long.MAX_VALUE);
+
+    assertThat(Files.exists(stale)).isFalse();
+    assertThat(Files.exists(recent)).isTrue();
+    assertThat(Files.exists(entry)).isTrue();
+  }
+
+  private static void record(CoverageCache cache, File report) throws Exception {
+    CoverageCache.Recorder recorder = cache.recorder(cache.keyOf(report), new RecordingHandler());
+    new CloverByteScanner(recorder).scan(report);
+    recorder.commit();
+  }
+
+  private static List<String> sorted(List<String> events) {
+    List<String> result = new ArrayList<>(events);
+    Collections.sort(result);
+    return result;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.clover.CloverByteScannerTest.RecordingHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoverageJsonReaderTest {
+
+  private static final String[] REPORTS = {"clover_3_2_2", "clover_4_1_1"};
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_read_same_data_as_xml_report() throws Exception {
+    for (String report : REPORTS) {
+      for (ReadOptions options : new ReadOptions[] {ReadOptions.DEFAULT, new ReadOptions(true, false), new ReadOptions(true, true)}) {
+        RecordingHandler expected = new RecordingHandler();
+        CloverXmlReportParser.createStaxParser(expected, options).parse(TestUtils.getResource(CloverXmlReportParserTest.class, report + ".xml"));
+
+        RecordingHandler actual = new RecordingHandler();
+        new CoverageJsonReader(actual, options).read(TestUtils.getResource(CloverXmlReportParserTest.class, report + ".json"));
+        assertThat(actual.events).as(report).isEqualTo(expected.events);
+      }
+    }
+  }
+
+  @Test
+  public void should_read_members_of_files_in_any_order() throws Exception {
+    File report = write("\uFEFF{\"project\": {\"packages\": [{\"files\": [{\"lines\": [{\"num\": 2, \"count\": 3}], \"metrics\": {\"elements\": 1},"
+      + " \"path\": \"/src/A\\u00e9\\ud83d\\ude00.java\"}, {\"metrics\": {\"elements\": 1}, \"lines\": [{\"num\": 1, \"count\": 1}]}]}]}}");
+    RecordingHandler handler = new RecordingHandler();
+    new CoverageJsonReader(handler).read(report);
+
+    assertThat(handler.events).containsExactly("start /src/A\u00e9\ud83d\ude00.java", "metrics true", "hits 2 3", "end");
+  }
+
+  @Test
+  public void should_skip_rest_of_rejected_files() throws Exception {
+    File report = write("{\"project\": {\"packages\": [{\"files\": ["
+      + "{\"path\": \"/other/A.java\", \"lines\": [{\"num\": \"x\"}], \"extra\": [1, {\"a\": null}, true]},"
+      + "{\"path\": \"/src/B.java\", \"metrics\": {\"elements\": 0}, \"lines\": [{\"num\": 4, \"truecount\": 99999999999, \"falsecount\": \"\"}]}]}]}}");
+    RecordingHandler handler = new RecordingHandler() {
+      @Override
+      public boolean startFile(String path) {
+        super.startFile(path);
+        return path.startsWith("/src/");
+      }
+    };
+    new CoverageJsonReader(handler).read(report);
+
+    assertThat(handler.events).containsExactly("start /other/A.java", "start /src/B.java", "metrics false", "conditions 4 2147483647 0", "end");
+  }
+
+  @Test
+  public void should_skip_rest_of_rejected_packages() throws Exception {
+    File report = write("{\"project\": {\"packages\": ["
+      + "{\"name\": \"org.generated\", \"files\": [{\"path\": \"/src/A.java\", \"lines\": [{\"num\": \"x\"}]}]},"
+      + "{\"files\": [{\"path\": \"/src/B.java\"}], \"name\": \"org.generated\"}]}}");
+    RecordingHandler handler = new RecordingHandler() {
+      @Override
+      public boolean acceptsPackage(String name) {
+        return false;
+      }
+    };
+    new CoverageJsonReader(handler).read(report);
+
+    // the name of the second package comes too late
+    assertThat(handler.events).containsExactly("start /src/B.java", "end");
+  }
+
+  @Test(expected = IOException.class)
+  public void should_fail_on_report_without_project() throws Exception {
+    new CoverageJsonReader(new RecordingHandler()).read(write("{\"testproject\": {}}"));
+  }
+
+  @Test(expected = IOException.class)
+  public void should_fail_on_truncated_report() throws Exception {
+    new CoverageJsonReader(new RecordingHandler()).read(write("{\"project\": {\"packages\": [{\"files\": [{\"path\": \"/src/A.java\""));
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void should_fail_on_invalid_number() throws Exception {
+    new CoverageJsonReader(new RecordingHandler()).read(write("{\"project\": {\"packages\": [{\"files\": [{\"path\": \"/A.java\", \"lines\": [{\"num\": -1}]}]}]}}"));
+  }
+
+  private File write(String content) throws Exception {
+    File report = temp.newFile();
+    Files.write(report.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return report;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoverageStoreTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final InputFile first = new TestInputFileBuilder("", "First.java").build();
+  private final InputFile second = new TestInputFileBuilder("", "Second.java").build();
+  private final InputFile third = new TestInputFileBuilder("", "Third.java").build();
+
+  @Test
+  public void should_merge_coverage_in_memory() throws Exception {
+    assertThat(assertMerged(1024 * 1024)).isEqualTo(0);
+  }
+
+  @Test
+  public void should_merge_coverage_spilled_to_disk() throws Exception {
+    assertThat(assertMerged(50)).isGreaterThan(1);
+  }
+
+  @Test
+  public void should_spill_every_record_without_budget() throws Exception {
+    // the last record stays in memory
+    assertThat(assertMerged(0)).isEqualTo(6);
+  }
+
+  @Test
+  public void should_delete_spilled_runs_once_closed() throws Exception {
+    Path directory = temp.newFolder().toPath();
+    CoverageStore store = new CoverageStore(() -> directory, 0);
+    store.add(first, coverage(1, 2));
+    store.add(second, coverage(3, 4));
+    assertThat(directory.toFile().listFiles()).hasSize(1);
+
+    store.close();
+    assertThat(directory.toFile().listFiles()).isEmpty();
+  }
+
+  /**
+   * @return the number of spilled runs
+   */
+  private int assertMerged(long memoryBudget) throws Exception {
+    FileCoverage a = coverage(1, 2, 3, 4);
+    FileCoverage b = coverage(5, 6);
+    FileCoverage c = new LineHitsBuffer().toFileCoverage(false);
+    FileCoverage d = coverage(3, 10, 7, 1);
+    FileCoverage e = FileCoverage.ofTotals(true, 10, 5, 4, 2);
+    FileCoverage f = coverage(1, 1);
+    FileCoverage withConditions = withConditions();
+
+    List<InputFile> files = new ArrayList<>();
+    List<FileCoverage> merged = new ArrayList<>();
+    int spilledRuns;
+    Path directory = temp.newFolder().toPath();
+    try (CoverageStore store = new CoverageStore(() -> directory, memoryBudget)) {
+      store.add(second, b);
+      store.add(first, a);
+      store.add(second, d);
+      store.add(third, c);
+      store.add(first, withConditions);
+      store.add(second, f);
+      store.add(third, e.merge(e));
+      store.forEachMerged((file, coverage) -> {
+        files.add(file);
+        merged.add(coverage);
+      });
+      spilledRuns = store.spilledRuns();
+    }
+
+    assertThat(files).containsExactly(second, first, third);
+    assertThat(encode(merged.get(0))).isEqualTo(encode(b.merge(d).merge(f)));
+    assertThat(encode(merged.get(1))).isEqualTo(encode(a.merge(withConditions)));
+    assertThat(encode(merged.get(2))).isEqualTo(encode(c.merge(e)));
+    return spilledRuns;
+  }
+
+  private static FileCoverage coverage(int... linesAndHits) {
+    LineHitsBuffer buffer = new LineHitsBuffer();
+    for (int i = 0; i < linesAndHits.length; i += 2) {
+      buffer.addLineHits(linesAndHits[i], linesAndHits[i + 1]);
+    }
+    return buffer.toFileCoverage(true);
+  }
+
+  private static FileCoverage withConditions() {
+    LineHitsBuffer buffer = new LineHitsBuffer();
+    buffer.addLineHits(3, 1);
+    buffer.addConditions(3, 1, 0);
+    buffer.addConditions(3, 0, 2);
+    return buffer.toFileCoverage(true);
+  }
+
+  private static byte[] encode(FileCoverage coverage) {
+    ByteBuffer buffer = ByteBuffer.allocate(coverage.encodedSize());
+    coverage.writeTo(buffer);
+    assertThat(buffer.hasRemaining()).isFalse();
+    return buffer.array();
+  }
+}
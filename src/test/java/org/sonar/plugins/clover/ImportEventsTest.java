@@ -0,0 +1,135 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+import org.sonar.api.config.internal.MapSettings;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ImportEventsTest {
+
+  private static final String PREFIX = "org.sonar.plugins.clover.";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final InputFileProvider provider = new InputFileProvider(null) {
+    @Override
+    public InputFile fromPath(String path) {
+      return new TestInputFileBuilder("", path).setLines(10_000).build();
+    }
+  };
+
+  @Test
+  public void should_record_events_of_stax_parser() throws Exception {
+    List<RecordedEvent> events = record("clover_3_2_2.xml", CloverXmlReportParser.STAX_PARSER, provider);
+
+    assertReportEvents(events, CloverXmlReportParser.STAX_PARSER);
+  }
+
+  @Test
+  public void should_record_events_of_byte_scanner() throws Exception {
+    List<RecordedEvent> events = record("clover_3_2_2.xml", CloverXmlReportParser.BYTES_PARSER, provider);
+
+    assertReportEvents(events, CloverXmlReportParser.BYTES_PARSER);
+  }
+
+  @Test
+  public void should_record_events_of_json_reader() throws Exception {
+    List<RecordedEvent> events = record("clover_3_2_2.json", CloverXmlReportParser.STAX_PARSER, provider);
+
+    assertReportEvents(events, CloverXmlReportParser.JSON_READER);
+  }
+
+  @Test
+  public void should_record_path_resolution_misses() throws Exception {
+    InputFileProvider noFiles = new InputFileProvider(null) {
+      @Override
+      public InputFile fromPath(String path) {
+        return null;
+      }
+    };
+    List<RecordedEvent> events = record("clover_3_2_2.xml", CloverXmlReportParser.STAX_PARSER, noFiles);
+
+    List<RecordedEvent> misses = ofType(events, "PathResolutionMiss");
+    assertThat(misses).hasSize(1);
+    assertThat(misses.get(0).getString("path")).isEqualTo("/home/benzonico/Development/SonarSource/clover-sample/src/main/java/SampleClass.java");
+    assertThat(ofType(events, "CoverageSave")).isEmpty();
+  }
+
+  private static void assertReportEvents(List<RecordedEvent> events, String parser) {
+    List<RecordedEvent> reports = ofType(events, "ReportParse");
+    assertThat(reports).hasSize(1);
+    assertThat(reports.get(0).getString("parser")).isEqualTo(parser);
+    assertThat(reports.get(0).getLong("bytes")).isGreaterThan(0);
+    assertThat(reports.get(0).getInt("files")).isEqualTo(1);
+    assertThat(reports.get(0).getLong("lines")).isEqualTo(8);
+    assertThat(reports.get(0).getLong("conditions")).isEqualTo(2);
+
+    List<RecordedEvent> packages = ofType(events, "PackageRead");
+    assertThat(packages).hasSize(1);
+    assertThat(packages.get(0).getString("name")).isEqualTo("default-pkg");
+    assertThat(packages.get(0).getLong("bytes")).isGreaterThan(0);
+    assertThat(packages.get(0).getInt("files")).isEqualTo(1);
+    assertThat(packages.get(0).getLong("lines")).isEqualTo(10);
+    assertThat(packages.get(0).getBoolean("skipped")).isFalse();
+
+    List<RecordedEvent> saves = ofType(events, "CoverageSave");
+    assertThat(saves).hasSize(1);
+    assertThat(saves.get(0).getInt("files")).isEqualTo(1);
+    assertThat(ofType(events, "PathResolutionMiss")).isEmpty();
+  }
+
+  private List<RecordedEvent> record(String report, String parserType, InputFileProvider inputFileProvider) throws Exception {
+    SensorContextTester context = SensorContextTester.create(new File("src/test/resources/"));
+    MapSettings settings = new MapSettings();
+    settings.setProperty(CloverSensor.PARSER_PROPERTY, parserType);
+    context.setSettings(settings);
+    Path dump = temp.newFile("events.jfr").toPath();
+    try (Recording recording = new Recording()) {
+      for (String event : new String[] {"ReportParse", "PackageRead", "PathResolutionMiss", "CoverageSave"}) {
+        recording.enable(PREFIX + event).withoutThreshold();
+      }
+      recording.start();
+      new CloverXmlReportParser(context, inputFileProvider).collect(TestUtils.getResource(CloverXmlReportParserTest.class, report));
+      recording.stop();
+      recording.dump(dump);
+    }
+    return RecordingFile.readAllEvents(dump);
+  }
+
+  private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+    return events.stream().filter(event -> event.getEventType().getName().equals(PREFIX + name)).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ImportStatsTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void histogram_should_count_latencies_in_power_of_two_buckets() {
+    ImportStats.LatencyHistogram histogram = new ImportStats.LatencyHistogram();
+    for (int i = 0; i < 98; i++) {
+      histogram.record(100);
+    }
+    histogram.record(5_000);
+    histogram.record(1_000_000);
+
+    assertThat(histogram.count()).isEqualTo(100);
+    assertThat(histogram.totalNanos()).isEqualTo(98 * 100 + 5_000 + 1_000_000);
+    assertThat(histogram.percentileNanos(50)).isEqualTo(127);
+    assertThat(histogram.percentileNanos(99)).isEqualTo(8_191);
+    assertThat(histogram.percentileNanos(100)).isEqualTo(1_000_000);
+    assertThat(histogram.maxNanos()).isEqualTo(1_000_000);
+  }
+
+  @Test
+  public void empty_histogram_should_have_no_latencies() {
+    ImportStats.LatencyHistogram histogram = new ImportStats.LatencyHistogram();
+    histogram.record(0);
+    histogram.record(-1);
+
+    assertThat(histogram.count()).isEqualTo(2);
+    assertThat(histogram.percentileNanos(99)).isEqualTo(0);
+    assertThat(new ImportStats.LatencyHistogram().percentileNanos(50)).isEqualTo(0);
+  }
+
+  @Test
+  public void should_summarize_counters() throws Exception {
+    ImportStats stats = new ImportStats();
+    stats.addReport(3 * 1024 * 1024, 1_000_000);
+    stats.addFile(10, 2);
+    stats.addFile(5, 0);
+    stats.addFile(0, 0);
+    stats.addUnmatchedFile();
+    stats.addExcludedFile();
+    stats.pathResolution().record(1_000);
+    stats.saving().record(2_000);
+    stats.finish(new InputFileProvider(null));
+
+    assertThat(stats.matchedFiles()).isEqualTo(2);
+    assertThat(stats.summary()).startsWith("Clover coverage imported in ")
+      .contains(": 1 reports, 3.0 MB (")
+      .contains(" MB/s), 3 files (")
+      .endsWith(" files/s), 2 matched, 1 unmatched, 0 unchanged, 1 excluded for coverage, 15 lines, 2 conditions");
+    assertThat(stats.phases()).contains("path resolution 0 ms (1 calls, p50 1 us, p99 1 us, max 1 us)");
+
+    File workDir = temp.newFolder();
+    stats.writeTo(workDir);
+    String json = new String(Files.readAllBytes(new File(workDir, ImportStats.REPORT_FILE_NAME).toPath()), StandardCharsets.UTF_8);
+    assertThat(json).startsWith("{\"reports\":1,\"bytes\":3145728,\"files\":3,\"matchedFiles\":2,\"unmatchedFiles\":1,\"unchangedFiles\":0,"
+      + "\"excludedFiles\":1,\"filteredFiles\":0,\"filteredPackages\":0,\"lines\":15,\"conditions\":2,\"wallTimeMs\":");
+    assertThat(json).endsWith("\"saving\":{\"count\":1,\"totalNanos\":2000,\"p50Nanos\":2000,\"p90Nanos\":2000,\"p99Nanos\":2000,\"maxNanos\":2000,"
+      + "\"buckets\":[{\"upperBoundNanos\":2047,\"count\":1}]}}");
+  }
+}
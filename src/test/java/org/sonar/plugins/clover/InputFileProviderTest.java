@@ -0,0 +1,101 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class InputFileProviderTest {
+
+  private final File baseDir = new File("src/test/resources/").getAbsoluteFile();
+  private InputFile inputFile;
+  private InputFileProvider provider;
+
+  @Before
+  public void before() {
+    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    inputFile = new TestInputFileBuilder("module", "src/main/java/Foo.java").setModuleBaseDir(baseDir.toPath()).build();
+    fs.add(inputFile);
+    provider = new InputFileProvider(fs);
+  }
+
+  @Test
+  public void should_find_file_from_absolute_path() {
+    assertThat(provider.fromPath(new File(baseDir, "src/main/java/Foo.java").getAbsolutePath())).isSameAs(inputFile);
+  }
+
+  @Test
+  public void should_find_file_from_relative_path() {
+    assertThat(provider.fromPath("src/main/java/Foo.java")).isSameAs(inputFile);
+    assertThat(provider.fromPath("src\\main\\java\\Foo.java")).isSameAs(inputFile);
+    assertThat(provider.fromPath("src/main/./java/Foo.java")).isSameAs(inputFile);
+  }
+
+  @Test
+  public void should_find_file_out_of_base_dir_from_absolute_path_only() {
+    File otherDir = new File("target/other").getAbsoluteFile();
+    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    InputFile otherFile = new TestInputFileBuilder("module", "src/main/java/Foo.java").setModuleBaseDir(otherDir.toPath()).build();
+    fs.add(otherFile);
+    InputFileProvider otherProvider = new InputFileProvider(fs);
+
+    assertThat(otherProvider.fromPath(new File(otherDir, "src/main/java/Foo.java").getAbsolutePath())).isSameAs(otherFile);
+    assertThat(otherProvider.fromPath("src/main/java/Foo.java")).isNull();
+    assertThat(otherProvider.indexedPaths()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_find_file_out_of_base_dir_from_path_through_base_dir() {
+    File otherDir = new File("target/other").getAbsoluteFile();
+    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    InputFile otherFile = new TestInputFileBuilder("module", "src/main/java/Foo.java").setModuleBaseDir(otherDir.toPath()).build();
+    fs.add(otherFile);
+    InputFileProvider otherProvider = new InputFileProvider(fs);
+
+    assertThat(otherProvider.fromPath(new File(baseDir, "../../../target/other/src/main/java/Foo.java").getPath())).isSameAs(otherFile);
+    assertThat(otherProvider.normalizedLookups()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_not_find_unknown_files() {
+    assertThat(provider.fromPath("src/main/java/Bar.java")).isNull();
+    assertThat(provider.fromPath("src/main/java/Bar.java")).isNull();
+    assertThat(provider.fromPath("/other/module/src/main/java/Foo.java")).isNull();
+  }
+
+  @Test
+  public void should_count_indexed_paths_and_normalized_lookups() {
+    assertThat(provider.indexedPaths()).isEqualTo(0);
+
+    provider.fromPath("src/main/java/Foo.java");
+    provider.fromPath("src/main/java/Bar.java");
+    provider.fromPath("src/main/java/Bar.java");
+
+    assertThat(provider.indexedPaths()).isEqualTo(2);
+    assertThat(provider.normalizedLookups()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Test;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class LineHitsBufferTest {
+
+  private final SensorContextTester context = SensorContextTester.create(new File("src/test/resources/"));
+  private final LineHitsBuffer buffer = new LineHitsBuffer();
+
+  @Test
+  public void should_sum_hits_of_dense_lines() {
+    buffer.reset();
+    for (int line = 10; line > 0; line--) {
+      buffer.addLineHits(line, line);
+      buffer.addLineHits(line, 1);
+    }
+    buffer.addLineHits(5, Integer.MAX_VALUE);
+    save("Dense.java", buffer.toFileCoverage(true));
+
+    assertThat(context.lineHits(":Dense.java", 1)).isEqualTo(2);
+    assertThat(context.lineHits(":Dense.java", 10)).isEqualTo(11);
+    assertThat(context.lineHits(":Dense.java", 5)).isEqualTo(Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void should_sum_hits_of_sparse_lines() {
+    buffer.reset();
+    buffer.addLineHits(900, 1);
+    buffer.addLineHits(3, 2);
+    buffer.addLineHits(900, 4);
+    save("Sparse.java", buffer.toFileCoverage(true));
+
+    assertThat(context.lineHits(":Sparse.java", 3)).isEqualTo(2);
+    assertThat(context.lineHits(":Sparse.java", 900)).isEqualTo(5);
+  }
+
+  @Test
+  public void should_be_reused_across_files() {
+    buffer.reset();
+    buffer.addLineHits(2, 1);
+    buffer.addConditions(2, 1, 0);
+    buffer.toFileCoverage(true);
+    buffer.reset();
+    buffer.addLineHits(4, 3);
+    buffer.addConditions(7, 1, 1);
+    buffer.addConditions(4, 0, 1);
+    save("Reused.java", buffer.toFileCoverage(true));
+
+    assertThat(context.lineHits(":Reused.java", 2)).isNull();
+    assertThat(context.conditions(":Reused.java", 2)).isNull();
+    assertThat(context.lineHits(":Reused.java", 4)).isEqualTo(3);
+    assertThat(context.coveredConditions(":Reused.java", 4)).isEqualTo(1);
+    assertThat(context.coveredConditions(":Reused.java", 7)).isEqualTo(2);
+  }
+
+  private void save(String path, FileCoverage coverage) {
+    coverage.save(context.newCoverage().onFile(new TestInputFileBuilder("", path).setLines(1_000).build()));
+  }
+}
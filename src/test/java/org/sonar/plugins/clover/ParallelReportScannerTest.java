@@ -0,0 +1,121 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ParallelReportScannerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+
+  @After
+  public void after() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void should_read_same_data_as_single_scanner() throws Exception {
+    for (String report : new String[] {"clover_2_3_2.xml", "clover_2_6_0.xml", "clover_3_2_2.xml", "clover_4_1_1.xml"}) {
+      File file = TestUtils.getResource(CloverXmlReportParserTest.class, report);
+      assertSameEvents(file, ReadOptions.DEFAULT);
+      assertSameEvents(file, new ReadOptions(true, false));
+      assertSameEvents(file, new ReadOptions(true, true));
+    }
+    assertSameEvents(reportWithPackages(500, "1"), ReadOptions.DEFAULT);
+    assertSameEvents(reportWithPackages(500, "1"), new ReadOptions(true, false));
+    assertSameEvents(reportWithPackages(500, "1"), new ReadOptions(false, true));
+  }
+
+  @Test
+  public void should_read_same_data_with_small_chunks() throws Exception {
+    File report = reportWithPackages(500, "1");
+    CloverByteScannerTest.RecordingHandler expected = new CloverByteScannerTest.RecordingHandler();
+    new CloverByteScanner(expected).scan(report);
+    CloverByteScannerTest.RecordingHandler actual = new CloverByteScannerTest.RecordingHandler();
+    ParallelReportScanner scanner = new ParallelReportScanner(actual, pool, 0);
+    // smaller than a package, so that each package is a chunk
+    scanner.setMaxChunkSize(100);
+    scanner.scan(report);
+
+    assertThat(actual.events).isEqualTo(expected.events);
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void should_fail_on_invalid_package() throws Exception {
+    new ParallelReportScanner(new CloverByteScannerTest.RecordingHandler(), pool, 0).scan(reportWithPackages(500, "x"));
+  }
+
+  @Test
+  public void should_skip_files_not_accepted_by_the_handler() throws Exception {
+    CloverByteScannerTest.RecordingHandler handler = new CloverByteScannerTest.RecordingHandler() {
+      @Override
+      public boolean acceptsFile(String path, boolean test) {
+        return !path.equals("/src/p499/A.java");
+      }
+
+      @Override
+      public boolean startFile(String path) {
+        super.startFile(path);
+        return acceptsFile(path, false);
+      }
+    };
+    // the content of the last file is invalid
+    new ParallelReportScanner(handler, pool, 0).scan(reportWithPackages(500, "x"));
+
+    assertThat(handler.events).contains("start /src/p498/A.java", "hits 499 498");
+    assertThat(handler.events.get(handler.events.size() - 1)).isEqualTo("start /src/p499/A.java");
+  }
+
+  private void assertSameEvents(File report, ReadOptions options) throws Exception {
+    CloverByteScannerTest.RecordingHandler expected = new CloverByteScannerTest.RecordingHandler();
+    new CloverByteScanner(expected, options).scan(report);
+    CloverByteScannerTest.RecordingHandler actual = new CloverByteScannerTest.RecordingHandler();
+    new ParallelReportScanner(actual, pool, 0, options).scan(report);
+    assertThat(actual.events).as(report.getName()).isEqualTo(expected.events);
+  }
+
+  private File reportWithPackages(int count, String lastHits) throws Exception {
+    StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<coverage><project><metrics/>");
+    for (int i = 0; i < count; i++) {
+      String hits = i == count - 1 ? lastHits : String.valueOf(i);
+      xml.append("<package name=\"p").append(i).append("\"><metrics/><!-- <file path=\"commented\"> -->")
+        .append("<file path=\"/src/p").append(i).append("/A.java\"><metrics elements=\"2\"/><class name=\"A\"><metrics/></class>")
+        .append("<line num=\"").append(i + 1).append("\" count=\"").append(hits).append("\"/>")
+        .append("<line num=\"2\" truecount=\"1\" falsecount=\"0\"/></file></package>\n");
+    }
+    xml.append("</project><testproject><package><metrics/><file path=\"/test/T.java\"/></package></testproject></coverage>");
+    File report = temp.newFile();
+    Files.write(report.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+    return report;
+  }
+}
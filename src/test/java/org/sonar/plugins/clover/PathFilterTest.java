@@ -0,0 +1,70 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PathFilterTest {
+
+  @Test
+  public void should_accept_all_files_without_patterns() {
+    assertThat(PathFilter.NONE.accepts("/src/A.java")).isTrue();
+    assertThat(PathFilter.NONE.acceptsPackage("org.example")).isTrue();
+    assertThat(new PathFilter(new String[] {" "}, new String[0]).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void should_match_exclusions_on_the_end_of_paths() {
+    PathFilter filter = new PathFilter(new String[0], new String[] {"**/generated/**", "**/*_.java", "src/test/**", "/abs/?.java"});
+
+    assertThat(filter.accepts("/work/target/generated/org/A.java")).isFalse();
+    assertThat(filter.accepts("/work/src/main/java/org/Entity_.java")).isFalse();
+    assertThat(filter.accepts("/work/src/test/java/ATest.java")).isFalse();
+    assertThat(filter.accepts("C:\\work\\generated\\A.java")).isFalse();
+    assertThat(filter.accepts("/abs/A.java")).isFalse();
+    assertThat(filter.accepts("/other/abs/A.java")).isTrue();
+    assertThat(filter.accepts("/work/src/main/java/org/Entity.java")).isTrue();
+    assertThat(filter.accepts("/work/src/main/java/generatedCode/A.java")).isTrue();
+    assertThat(filter.accepts("/work/mysrc/test/A.java")).isTrue();
+  }
+
+  @Test
+  public void should_keep_included_files_which_are_not_excluded() {
+    PathFilter filter = new PathFilter(new String[] {"src/main/java/**", "**/*.groovy"}, new String[] {"**/internal/*"});
+
+    assertThat(filter.accepts("/work/src/main/java/org/A.java")).isTrue();
+    assertThat(filter.accepts("/work/scripts/build.groovy")).isTrue();
+    assertThat(filter.accepts("/work/src/main/java/org/internal/A.java")).isFalse();
+    assertThat(filter.accepts("/work/src/test/java/org/A.java")).isFalse();
+  }
+
+  @Test
+  public void should_skip_packages_under_excluded_directories() {
+    PathFilter filter = new PathFilter(new String[0], new String[] {"**/generated/**", "**/*_.java", "/abs/**"});
+
+    assertThat(filter.acceptsPackage("org.example.generated")).isFalse();
+    assertThat(filter.acceptsPackage("generated.sub")).isFalse();
+    assertThat(filter.acceptsPackage("org.example")).isTrue();
+    assertThat(filter.acceptsPackage("abs")).isTrue();
+    assertThat(filter.acceptsPackage("default-pkg")).isTrue();
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Test;
+import org.sonar.api.utils.MessageException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PathRemapperTest {
+
+  @Test
+  public void should_rewrite_longest_matching_prefix() {
+    PathRemapper remapper = new PathRemapper(new String[] {"/workspace=/home/ci", "/workspace/module/=/opt/module"});
+
+    assertThat(remapper.remap("/workspace/src/Foo.java")).isEqualTo("/home/ci/src/Foo.java");
+    assertThat(remapper.remap("/workspace/module/src/Foo.java")).isEqualTo("/opt/module/src/Foo.java");
+    assertThat(remapper.remap("/workspace")).isEqualTo("/home/ci");
+  }
+
+  @Test
+  public void should_only_match_whole_directories() {
+    PathRemapper remapper = new PathRemapper(new String[] {"/workspace=/home/ci"});
+
+    String path = "/workspaces/src/Foo.java";
+    assertThat(remapper.remap(path)).isSameAs(path);
+  }
+
+  @Test
+  public void should_match_windows_paths() {
+    PathRemapper remapper = new PathRemapper(new String[] {"C:\\build\\=/home/ci", "\\\\server\\share=/mnt/share"});
+
+    assertThat(remapper.remap("c:\\build\\src\\Foo.java")).isEqualTo("/home/ci\\src\\Foo.java");
+    assertThat(remapper.remap("C:/build/src/Foo.java")).isEqualTo("/home/ci/src/Foo.java");
+    assertThat(remapper.remap("\\\\server\\share\\src\\Foo.java")).isEqualTo("/mnt/share\\src\\Foo.java");
+  }
+
+  @Test
+  public void should_not_change_paths_without_rules() {
+    String path = "/workspace/src/Foo.java";
+    assertThat(PathRemapper.NONE.remap(path)).isSameAs(path);
+  }
+
+  @Test(expected = MessageException.class)
+  public void should_fail_on_invalid_rule() {
+    new PathRemapper(new String[] {"/workspace"});
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.utils.MessageException;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ReportIntegrityTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void should_accept_complete_reports() throws Exception {
+    ReportIntegrity.check(TestUtils.getResource(CloverXmlReportParserTest.class, "clover_3_2_2.xml"));
+    ReportIntegrity.check(TestUtils.getResource(CloverXmlReportParserTest.class, "clover_3_2_2.json"));
+    assertThat(ReportIntegrity.check(write("<coverage><project/></coverage >\n\n"))).isNull();
+  }
+
+  @Test
+  public void should_reject_truncated_xml_report() throws Exception {
+    byte[] content = Files.readAllBytes(TestUtils.getResource(CloverXmlReportParserTest.class, "clover_3_2_2.xml").toPath());
+    File report = write(Arrays.copyOf(content, content.length / 2));
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("is truncated: it does not end with </coverage>");
+    ReportIntegrity.check(report);
+  }
+
+  @Test
+  public void should_accept_comments_and_processing_instructions_after_end_tag() throws Exception {
+    assertThat(ReportIntegrity.check(write("<coverage><project/></coverage>\n<!-- generated by the build -->\n"))).isNull();
+    assertThat(ReportIntegrity.check(write("<coverage><project/></coverage><?clover done?> <!-- - -->\n"))).isNull();
+  }
+
+  @Test
+  public void should_reject_report_truncated_in_trailing_comment() throws Exception {
+    File report = write("<coverage><project/></coverage>\n<!-- generated by");
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("is truncated: it does not end with </coverage>");
+    ReportIntegrity.check(report);
+  }
+
+  @Test
+  public void should_reject_truncated_json_report() throws Exception {
+    byte[] content = Files.readAllBytes(TestUtils.getResource(CloverXmlReportParserTest.class, "clover_3_2_2.json").toPath());
+    File report = write(Arrays.copyOf(content, content.length / 2));
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("is truncated: it does not end with '}'");
+    ReportIntegrity.check(report);
+  }
+
+  @Test
+  public void should_check_footer_of_xz_reports() throws Exception {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (XZOutputStream output = new XZOutputStream(compressed, new LZMA2Options())) {
+      output.write("<coverage><project/></coverage>".getBytes(StandardCharsets.UTF_8));
+    }
+    ReportIntegrity.check(write(compressed.toByteArray()));
+
+    File truncated = write(Arrays.copyOf(compressed.toByteArray(), compressed.size() - 1));
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("is truncated: it does not end with the footer of an xz stream");
+    ReportIntegrity.check(truncated);
+  }
+
+  @Test
+  public void should_accept_report_matching_its_checksum() throws Exception {
+    File report = write("<coverage><project/></coverage>");
+    String sha256 = CoverageCache.sha256Of(report);
+    writeChecksum(report, sha256.toUpperCase() + "  " + report.getName() + "\n");
+
+    // reused as the key of the caches
+    assertThat(ReportIntegrity.check(report)).isEqualTo(sha256);
+  }
+
+  @Test
+  public void should_reject_report_not_matching_its_checksum() throws Exception {
+    File report = write("<coverage><project/></coverage>");
+    writeChecksum(report, CoverageCache.sha256Of(write("<coverage></coverage>")));
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("does not match its checksum in " + report.getName() + ".sha256");
+    ReportIntegrity.check(report);
+  }
+
+  @Test
+  public void should_reject_invalid_checksum() throws Exception {
+    File report = write("<coverage><project/></coverage>");
+    writeChecksum(report, "not a checksum");
+
+    thrown.expect(MessageException.class);
+    thrown.expectMessage("Invalid checksum in");
+    ReportIntegrity.check(report);
+  }
+
+  private File write(String content) throws Exception {
+    return write(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private File write(byte[] content) throws Exception {
+    File report = temp.newFile();
+    Files.write(report.toPath(), content);
+    return report;
+  }
+
+  private static void writeChecksum(File report, String content) throws Exception {
+    Files.write(new File(report.getPath() + ReportIntegrity.CHECKSUM_SUFFIX).toPath(), content.getBytes(StandardCharsets.US_ASCII));
+  }
+}
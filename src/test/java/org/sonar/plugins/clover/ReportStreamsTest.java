@@ -0,0 +1,134 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ReportStreamsTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final File report = TestUtils.getResource(CloverXmlReportParserTest.class, "clover_4_1_1.xml");
+
+  @Test
+  public void should_read_plain_reports() throws Exception {
+    assertThat(ReportStreams.compressionOf(report)).isEqualTo(ReportStreams.Compression.NONE);
+    assertThat(readAll(report)).isEqualTo(Files.readAllBytes(report.toPath()));
+  }
+
+  @Test
+  public void should_decompress_multi_member_gzip_reports() throws Exception {
+    byte[] content = Files.readAllBytes(report.toPath());
+    File compressed = temp.newFile("clover.xml.gz");
+    try (OutputStream output = Files.newOutputStream(compressed.toPath())) {
+      int half = content.length / 2;
+      try (GZIPOutputStream member = new GZIPOutputStream(new NonClosingOutputStream(output))) {
+        member.write(content, 0, half);
+      }
+      try (GZIPOutputStream member = new GZIPOutputStream(new NonClosingOutputStream(output))) {
+        member.write(content, half, content.length - half);
+      }
+    }
+
+    assertThat(ReportStreams.compressionOf(compressed)).isEqualTo(ReportStreams.Compression.GZIP);
+    assertThat(readAll(compressed)).isEqualTo(content);
+  }
+
+  @Test
+  public void should_decompress_xz_reports() throws Exception {
+    File compressed = temp.newFile("clover.xml.xz");
+    try (OutputStream output = new XZOutputStream(Files.newOutputStream(compressed.toPath()), new LZMA2Options())) {
+      Files.copy(report.toPath(), output);
+    }
+
+    assertThat(ReportStreams.compressionOf(compressed)).isEqualTo(ReportStreams.Compression.XZ);
+    assertThat(readAll(compressed)).isEqualTo(Files.readAllBytes(report.toPath()));
+  }
+
+  @Test
+  public void should_decompress_zstd_reports() throws Exception {
+    File compressed = temp.newFile("clover.xml.zst");
+    try (OutputStream output = new ZstdOutputStream(Files.newOutputStream(compressed.toPath()))) {
+      Files.copy(report.toPath(), output);
+    }
+
+    assertThat(ReportStreams.compressionOf(compressed)).isEqualTo(ReportStreams.Compression.ZSTD);
+    assertThat(readAll(compressed)).isEqualTo(Files.readAllBytes(report.toPath()));
+  }
+
+  @Test
+  public void should_detect_json_reports_whether_compressed_or_not() throws Exception {
+    File json = TestUtils.getResource(CloverXmlReportParserTest.class, "clover_3_2_2.json");
+    File compressed = temp.newFile("clover.json.gz");
+    try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(compressed.toPath()))) {
+      Files.copy(json.toPath(), output);
+    }
+
+    assertThat(ReportStreams.isJson(report)).isFalse();
+    assertThat(ReportStreams.isJson(json)).isTrue();
+    assertThat(ReportStreams.isJson(compressed)).isTrue();
+  }
+
+  @Test(expected = IOException.class)
+  public void should_fail_on_corrupted_reports() throws Exception {
+    byte[] content = Files.readAllBytes(report.toPath());
+    File compressed = temp.newFile("clover.xml.gz");
+    try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(compressed.toPath()))) {
+      output.write(content);
+    }
+    byte[] bytes = Files.readAllBytes(compressed.toPath());
+    Files.write(compressed.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+
+    readAll(compressed);
+  }
+
+  private static byte[] readAll(File file) throws IOException {
+    try (InputStream input = ReportStreams.open(file)) {
+      return input.readAllBytes();
+    }
+  }
+
+  private static class NonClosingOutputStream extends java.io.FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
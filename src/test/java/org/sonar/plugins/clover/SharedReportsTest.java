@@ -0,0 +1,83 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.clover.CloverByteScannerTest.RecordingHandler;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SharedReportsTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_replay_reports_read_by_previous_modules() throws Exception {
+    SharedReports sharedReports = new SharedReports();
+    File report = TestUtils.getResource(CloverXmlReportParserTest.class, "clover_3_2_2.xml");
+    String key = sharedReports.keyOf(report, false);
+    assertThat(sharedReports.replay(key, new RecordingHandler())).isFalse();
+
+    RecordingHandler parsed = new RecordingHandler();
+    CoverageCache.Recorder recorder = sharedReports.recorder(key, parsed, temp.getRoot().toPath());
+    new CloverByteScanner(recorder).scan(report);
+    recorder.commit();
+
+    RecordingHandler replayed = new RecordingHandler();
+    assertThat(sharedReports.replay(key, replayed)).isTrue();
+    // lines and conditions are replayed separately
+    assertThat(replayed.events).hasSize(parsed.events.size());
+    assertThat(replayed.events).containsOnly(parsed.events.toArray());
+    assertThat(sharedReports.replay(sharedReports.keyOf(report, true), new RecordingHandler())).isFalse();
+    // only the path of the entry is kept in memory
+    assertThat(new File(temp.getRoot(), SharedReports.DIRECTORY).listFiles()).hasSize(1);
+  }
+
+  @Test
+  public void should_not_keep_aborted_reports() throws Exception {
+    SharedReports sharedReports = new SharedReports();
+    File report = TestUtils.getResource(CloverXmlReportParserTest.class, "clover_3_2_2.xml");
+    String key = sharedReports.keyOf(report, false);
+    sharedReports.recorder(key, new RecordingHandler(), temp.getRoot().toPath()).abort();
+
+    assertThat(sharedReports.replay(key, new RecordingHandler())).isFalse();
+    assertThat(new File(temp.getRoot(), SharedReports.DIRECTORY).listFiles()).isEmpty();
+  }
+
+  @Test
+  public void should_key_reports_by_content() throws Exception {
+    SharedReports sharedReports = new SharedReports();
+    File first = temp.newFile("first.xml");
+    File second = temp.newFile("second.xml");
+    Files.write(first.toPath(), "<coverage/>".getBytes(StandardCharsets.UTF_8));
+    Files.write(second.toPath(), "<coverage/>".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(sharedReports.keyOf(first, false)).isEqualTo(sharedReports.keyOf(second, false));
+    Files.write(second.toPath(), "<coverage></coverage>".getBytes(StandardCharsets.UTF_8));
+    assertThat(sharedReports.keyOf(first, false)).isNotEqualTo(sharedReports.keyOf(second, false));
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Sonar Clover Plugin
+ * Copyright (C) 2008 SonarSource
+ * sonarqube@googlegroups.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.clover;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class UnmatchedFilesDiagnosticsTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_group_unmatched_files_by_directory() {
+    UnmatchedFilesDiagnostics diagnostics = new UnmatchedFilesDiagnostics();
+    diagnostics.add("/other/module/src/A.java");
+    diagnostics.add("/other/module/src/B.java");
+    diagnostics.add("C:\\windows\\module\\C.java");
+
+    assertThat(diagnostics.count()).isEqualTo(3);
+    assertThat(diagnostics.summary()).isEqualTo("/other/module/src (2), C:\\windows\\module (1)");
+  }
+
+  @Test
+  public void should_keep_a_bounded_number_of_directories() {
+    UnmatchedFilesDiagnostics diagnostics = new UnmatchedFilesDiagnostics();
+    for (int i = 0; i < 50_000; i++) {
+      diagnostics.add("/other/dir" + i + "/File.java");
+    }
+    diagnostics.add("/other/dir0/Other.java");
+
+    assertThat(diagnostics.count()).isEqualTo(50_001);
+    assertThat(diagnostics.summary()).startsWith("/other/dir0 (2), ").endsWith(" and other directories");
+  }
+
+  @Test
+  public void should_write_json_report() throws Exception {
+    UnmatchedFilesDiagnostics diagnostics = new UnmatchedFilesDiagnostics();
+    diagnostics.add("/other/module/src/A\"quoted\".java");
+    UnmatchedFilesDiagnostics other = new UnmatchedFilesDiagnostics();
+    other.add("/other/module/src/B.java");
+    diagnostics.addAll(other);
+
+    File workDir = temp.newFolder();
+    diagnostics.writeTo(workDir);
+
+    String json = new String(Files.readAllBytes(new File(workDir, UnmatchedFilesDiagnostics.REPORT_FILE_NAME).toPath()), StandardCharsets.UTF_8);
+    assertThat(json).isEqualTo("{\"unmatchedFiles\":2,\"directories\":[{\"path\":\"/other/module/src\",\"count\":2}],"
+      + "\"filesInOtherDirectories\":0,\"samples\":[\"/other/module/src/A\\\"quoted\\\".java\",\"/other/module/src/B.java\"]}");
+  }
+}